@@ -0,0 +1,7 @@
+@echo off
+echo 'Compiling benchmarks...'
+if exist .\bin\bench rmdir /s /q .\bin\bench
+mkdir .\bin\bench
+javac -d ./bin/bench/ src/org/runetekk/*.java bench/src/org/runetekk/*.java
+jar --create --file ./bin/ondemand-bench.jar --main-class org.runetekk.BenchmarkRunner -C ./bin/bench/ .
+pause
\ No newline at end of file
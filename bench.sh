@@ -0,0 +1,12 @@
+#! /bin/sh
+##
+# Benchmark build script for Ondemand
+#
+# Builds bin/ondemand-bench.jar, run it with: java -jar bin/ondemand-bench.jar [-size 64] [-filter FileIndex]
+# Generate load against a running server with: java -cp bin/ondemand-bench.jar org.runetekk.LoadGenerator -config <server.properties>
+##
+echo 'Compiling benchmarks..'
+rm -rf ./bin/bench/
+mkdir -p ./bin/bench/
+javac -d ./bin/bench/ src/org/runetekk/*.java bench/src/org/runetekk/*.java || exit 1
+exec jar --create --file ./bin/ondemand-bench.jar --main-class org.runetekk.BenchmarkRunner -C ./bin/bench/ .
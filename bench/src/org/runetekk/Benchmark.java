@@ -0,0 +1,52 @@
+package org.runetekk;
+
+import java.io.IOException;
+
+/**
+ * Benchmark.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public abstract class Benchmark {
+
+    /**
+     * The name of this benchmark.
+     */
+    private String name;
+
+    /**
+     * Sets up the state of this benchmark before it is measured.
+     * @param cache The {@link SyntheticCache} to benchmark against.
+     * @throws IOException An I/O error occurred while setting up.
+     */
+    abstract void setUp(SyntheticCache cache) throws IOException;
+
+    /**
+     * Performs a single operation of this benchmark.
+     * @return The amount of bytes the operation processed, which is also summed
+     *         by the runner so that the work of the operation cannot be eliminated.
+     */
+    abstract long operate();
+
+    /**
+     * Releases the state of this benchmark once it was measured.
+     */
+    void tearDown() {
+    }
+
+    /**
+     * Gets the name of this benchmark.
+     * @return The name.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Constructs a new {@link Benchmark};
+     * @param name The name of the benchmark.
+     */
+    public Benchmark(String name) {
+        this.name = name;
+    }
+}
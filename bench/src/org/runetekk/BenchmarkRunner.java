@@ -0,0 +1,173 @@
+package org.runetekk;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * BenchmarkRunner.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(BenchmarkRunner.class.getName());
+
+    /**
+     * The amount of nanoseconds a batch of operations should take, the clock is
+     * only read between batches so that it does not add to short operations.
+     */
+    private static final long BATCH_TIME = 10000L;
+
+    /**
+     * The {@link com.sun.management.ThreadMXBean} that the allocated bytes of the
+     * benchmarking thread are read from, or null if the runtime does not count them.
+     */
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    /**
+     * The sum of the results of all the operations, printed at the end so that the
+     * operations cannot be eliminated.
+     */
+    private static long sink;
+
+    /**
+     * Gets the amount of bytes allocated by the current thread.
+     * @return The amount of bytes or zero if they are not counted.
+     */
+    private static long getAllocatedBytes() {
+        return threadBean == null ? 0L : threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Runs a benchmark for an amount of time.
+     * @param benchmark The benchmark.
+     * @param time The amount of milliseconds to run for.
+     * @param batch The amount of operations between each read of the clock.
+     * @param result The array to put the amount of operations, nanoseconds, bytes
+     *               processed and bytes allocated into.
+     */
+    private static void measure(Benchmark benchmark, long time, int batch, long[] result) {
+        long operations = 0L;
+        long bytes = 0L;
+        long allocated = getAllocatedBytes();
+        long startTime = System.nanoTime();
+        long endTime = startTime + time * 1000000L;
+        long now;
+        do {
+            for(int i = 0; i < batch; i++)
+                bytes += benchmark.operate();
+            operations += batch;
+        } while((now = System.nanoTime()) < endTime);
+        result[0] = operations;
+        result[1] = now - startTime;
+        result[2] = bytes;
+        result[3] = getAllocatedBytes() - allocated;
+        sink += bytes;
+    }
+
+    /**
+     * Runs a benchmark and prints its results. The benchmark is first warmed up,
+     * which also sizes the batches, and then measured for a number of iterations.
+     * @param benchmark The benchmark.
+     * @param cache The {@link SyntheticCache} to benchmark against.
+     * @param warmups The amount of warmup iterations.
+     * @param iterations The amount of measured iterations.
+     * @param time The amount of milliseconds in each iteration.
+     * @throws Exception An exception was thrown while setting up the benchmark.
+     */
+    private static void run(Benchmark benchmark, SyntheticCache cache, int warmups, int iterations, long time) throws Exception {
+        benchmark.setUp(cache);
+        try {
+            long[] result = new long[4];
+            int batch = 1;
+            for(int i = 0; i < warmups; i++) {
+                measure(benchmark, time, batch, result);
+                batch = (int) Math.max(1L, Math.min(1 << 20, BATCH_TIME * result[0] / Math.max(1L, result[1])));
+            }
+            double[] scores = new double[iterations];
+            long operations = 0L;
+            long nanos = 0L;
+            long bytes = 0L;
+            long allocated = 0L;
+            for(int i = 0; i < iterations; i++) {
+                measure(benchmark, time, batch, result);
+                scores[i] = (double) result[1] / result[0];
+                operations += result[0];
+                nanos += result[1];
+                bytes += result[2];
+                allocated += result[3];
+            }
+            double mean = (double) nanos / operations;
+            double deviation = 0D;
+            for(int i = 0; i < iterations; i++)
+                deviation += (scores[i] - mean) * (scores[i] - mean);
+            deviation = iterations > 1 ? Math.sqrt(deviation / (iterations - 1)) : 0D;
+            System.out.printf("%-38s %12.1f %10.1f %12.1f %12.1f %12.1f%n", benchmark.getName(), mean, deviation, bytes * 1000D / nanos,
+                              (double) allocated / operations, allocated * 1000D / nanos);
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * Gets the value of an option from the arguments.
+     * @param args The arguments.
+     * @param name The name of the option.
+     * @param defaultValue The value if the option is not given.
+     * @return The value.
+     */
+    private static String getOption(String[] args, String name, String defaultValue) {
+        for(int i = 0; i < args.length - 1; i++) {
+            if(args[i].equals(name))
+                return args[i + 1];
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The main starting point for the benchmarks. The benchmarks are run against a
+     * synthetic cache that is written before they start.
+     * @param args The command line arguments, pairs of an option and its value:
+     *             -dir the directory to write the synthetic cache to,
+     *             -size the size of the synthetic cache in megabytes,
+     *             -indexes the amount of indexes, -archive the average archive size,
+     *             -warmups and -iterations the amount of iterations,
+     *             -time the milliseconds in each iteration and -filter a regular
+     *             expression the benchmark names must contain.
+     * @throws Exception An exception was thrown while writing the cache or running.
+     */
+    public static void main(String[] args) throws Exception {
+        String cacheDir = getOption(args, "-dir", System.getProperty("java.io.tmpdir") + File.separator + "ondemand-bench");
+        long size = Long.parseLong(getOption(args, "-size", "64")) * 1024L * 1024L;
+        int indexCount = Integer.parseInt(getOption(args, "-indexes", "4"));
+        int averageSize = Integer.parseInt(getOption(args, "-archive", "8192"));
+        int warmups = Integer.parseInt(getOption(args, "-warmups", "3"));
+        int iterations = Integer.parseInt(getOption(args, "-iterations", "5"));
+        long time = Long.parseLong(getOption(args, "-time", "1000"));
+        Pattern filter = Pattern.compile(getOption(args, "-filter", ""));
+        int archiveCount = (int) Math.max(1L, Math.min(0xFFFF, size / averageSize / indexCount));
+        if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if(threadBean.isThreadAllocatedMemorySupported())
+                threadBean.setThreadAllocatedMemoryEnabled(true);
+            else
+                threadBean = null;
+        }
+        if(threadBean == null)
+            LOGGER.log(Level.WARNING, "The runtime does not count allocated bytes, the allocation rates are reported as zero.");
+        SyntheticCache cache = new SyntheticCache(cacheDir, indexCount, archiveCount, averageSize, 1L);
+        System.out.printf("%-38s %12s %10s %12s %12s %12s%n", "Benchmark", "ns/op", "error", "MB/s", "alloc B/op", "alloc MB/s");
+        Benchmark[] benchmarks = Benchmarks.create();
+        for(int i = 0; i < benchmarks.length; i++) {
+            if(filter.matcher(benchmarks[i].getName()).find())
+                run(benchmarks[i], cache, warmups, iterations, time);
+        }
+        System.out.println("(" + sink + " bytes processed)");
+    }
+}
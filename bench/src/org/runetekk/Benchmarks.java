@@ -0,0 +1,334 @@
+package org.runetekk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Benchmarks.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class Benchmarks {
+
+    /**
+     * The amount of requests that are decoded before the request buffer is rewound.
+     */
+    private static final int REQUEST_COUNT = 4096;
+
+    /**
+     * The seed of the archives that are picked by the benchmarks.
+     */
+    private static final long SEED = 42L;
+
+    /**
+     * Creates a benchmark of reading random archives through {@link FileIndex#get}.
+     * @param mapIndexes If the main file is mapped into memory.
+     * @return The benchmark.
+     */
+    private static Benchmark createArchiveRead(final boolean mapIndexes) {
+        return new Benchmark(mapIndexes ? "MappedFileIndex.get" : "FileIndex.get") {
+
+            /**
+             * The opened indexes.
+             */
+            private FileIndex[] fileIndexes;
+
+            /**
+             * The amount of archives in each index.
+             */
+            private int archiveCount;
+
+            /**
+             * The random archive picker.
+             */
+            private Random random;
+
+            @Override
+            void setUp(SyntheticCache cache) throws IOException {
+                fileIndexes = cache.open(mapIndexes);
+                archiveCount = cache.getArchiveCount();
+                random = new Random(SEED);
+            }
+
+            @Override
+            long operate() {
+                byte[] src = fileIndexes[random.nextInt(fileIndexes.length)].get(random.nextInt(archiveCount));
+                return src == null ? 0L : src.length;
+            }
+
+            @Override
+            void tearDown() {
+                for(int i = 0; i < fileIndexes.length; i++)
+                    fileIndexes[i].destroy();
+            }
+        };
+    }
+
+    /**
+     * Creates a benchmark of scanning every archive of every index in order, the
+     * way the archives are preloaded.
+     * @return The benchmark.
+     */
+    private static Benchmark createIndexScan() {
+        return new Benchmark("FileIndex.scan") {
+
+            /**
+             * The opened indexes.
+             */
+            private FileIndex[] fileIndexes;
+
+            /**
+             * The amount of archives in each index.
+             */
+            private int archiveCount;
+
+            /**
+             * The position of the scan, the index id in the upper half and the
+             * archive id in the lower half.
+             */
+            private int position;
+
+            @Override
+            void setUp(SyntheticCache cache) throws IOException {
+                fileIndexes = cache.open(false);
+                archiveCount = cache.getArchiveCount();
+            }
+
+            @Override
+            long operate() {
+                int indexId = position >>> 16;
+                int archiveId = position & 0xFFFF;
+                position = archiveId + 1 < archiveCount ? position + 1 : ((indexId + 1) % fileIndexes.length) << 16;
+                byte[] src = fileIndexes[indexId].get(archiveId);
+                return src == null ? 0L : src.length;
+            }
+
+            @Override
+            void tearDown() {
+                for(int i = 0; i < fileIndexes.length; i++)
+                    fileIndexes[i].destroy();
+            }
+        };
+    }
+
+    /**
+     * Creates a benchmark of copying blocks out of a {@link DirectBuffer} into a
+     * direct buffer, the copy every block that is served is made with.
+     * @return The benchmark.
+     */
+    private static Benchmark createDirectBufferGet() {
+        return new Benchmark("DirectBuffer.get") {
+
+            /**
+             * The buffer to copy from.
+             */
+            private DirectBuffer buffer;
+
+            /**
+             * The buffer to copy into.
+             */
+            private ByteBuffer dst;
+
+            /**
+             * The random block picker.
+             */
+            private Random random;
+
+            @Override
+            void setUp(SyntheticCache cache) {
+                byte[] src = new byte[1 << 20];
+                new Random(SEED).nextBytes(src);
+                buffer = new DirectBuffer();
+                buffer.put(src);
+                dst = ByteBuffer.allocateDirect(Main.BLOCK_SIZE);
+                random = new Random(SEED);
+            }
+
+            @Override
+            long operate() {
+                dst.clear();
+                buffer.get(random.nextInt(buffer.getCapacity() - Main.BLOCK_SIZE), Main.BLOCK_SIZE, dst);
+                return Main.BLOCK_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Creates a benchmark of putting archives into a {@link DirectBuffer}, the way
+     * the lazily loaded archives are cached.
+     * @return The benchmark.
+     */
+    private static Benchmark createDirectBufferPut() {
+        return new Benchmark("DirectBuffer.put") {
+
+            /**
+             * The archives to put.
+             */
+            private byte[][] archives;
+
+            /**
+             * The next archive to put.
+             */
+            private int position;
+
+            @Override
+            void setUp(SyntheticCache cache) throws IOException {
+                FileIndex[] fileIndexes = cache.open(false);
+                archives = new byte[Math.min(256, cache.getArchiveCount())][];
+                for(int i = 0; i < archives.length; i++)
+                    archives[i] = fileIndexes[0].get(i);
+                for(int i = 0; i < fileIndexes.length; i++)
+                    fileIndexes[i].destroy();
+            }
+
+            @Override
+            long operate() {
+                byte[] src = archives[position];
+                position = (position + 1) % archives.length;
+                DirectBuffer buffer = new DirectBuffer();
+                buffer.put(src);
+                int capacity = buffer.getCapacity();
+                buffer.destroy();
+                return capacity;
+            }
+        };
+    }
+
+    /**
+     * Creates a benchmark of decoding the four byte requests from the read buffer
+     * of a client, queueing them and removing them once they are served.
+     * @return The benchmark.
+     */
+    private static Benchmark createRequestDecode() {
+        return new Benchmark("Client.queueRequest") {
+
+            /**
+             * The client that the requests are queued for.
+             */
+            private Client client;
+
+            /**
+             * The buffer that the requests are decoded from.
+             */
+            private ByteBuffer requests;
+
+            @Override
+            void setUp(SyntheticCache cache) {
+                client = new Client(null, null, new MetricsRecorder(false));
+                requests = ByteBuffer.allocate(REQUEST_COUNT * Main.REQUEST_SIZE);
+                Random random = new Random(SEED);
+                while(requests.hasRemaining())
+                    requests.putInt((random.nextInt(cache.getIndexCount()) << 24) | (random.nextInt(cache.getArchiveCount()) << 8) | random.nextInt(3));
+                requests.flip();
+            }
+
+            @Override
+            long operate() {
+                if(!requests.hasRemaining())
+                    requests.rewind();
+                int hash = requests.getInt();
+                client.queueRequest(hash, System.nanoTime());
+                int[] queue = client.getNextQueue();
+                client.popRequest(queue);
+                return Main.REQUEST_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Creates a benchmark of framing every block of random archives out of an
+     * {@link ArchiveSnapshot} into the output buffer of a client.
+     * @param preframe If the archives are stored pre-framed.
+     * @return The benchmark.
+     */
+    private static Benchmark createBlockFraming(final boolean preframe) {
+        return new Benchmark(preframe ? "ArchiveSnapshot.frameBlock.preframed" : "ArchiveSnapshot.frameBlock") {
+
+            /**
+             * The snapshot to frame the blocks from.
+             */
+            private ArchiveSnapshot snapshot;
+
+            /**
+             * The client that the blocks are framed for.
+             */
+            private Client client;
+
+            /**
+             * The buffer that the blocks are framed into.
+             */
+            private ByteBuffer dst;
+
+            /**
+             * The amount of archives in each index.
+             */
+            private int archiveCount;
+
+            /**
+             * The amount of indexes.
+             */
+            private int indexCount;
+
+            /**
+             * The random archive picker.
+             */
+            private Random random;
+
+            @Override
+            void setUp(SyntheticCache cache) throws IOException {
+                FileIndex[] fileIndexes = cache.open(false);
+                int[][] lengths = cache.getLengths();
+                ArchiveArena archiveArena = new ArchiveArena(lengths, preframe);
+                for(int indexId = 0; indexId < lengths.length; indexId++) {
+                    for(int archiveId = 0; archiveId < lengths[indexId].length; archiveId++)
+                        archiveArena.put(indexId, archiveId, fileIndexes[indexId].get(archiveId));
+                }
+                snapshot = new ArchiveSnapshot(fileIndexes, archiveArena, null, null, lengths.length * cache.getArchiveCount());
+                client = new Client(null, null, new MetricsRecorder(false));
+                dst = ByteBuffer.allocateDirect(Main.getFramedLength(0xFFFF));
+                archiveCount = cache.getArchiveCount();
+                indexCount = cache.getIndexCount();
+                random = new Random(SEED);
+            }
+
+            @Override
+            long operate() {
+                client.queueRequest((random.nextInt(indexCount) << 24) | (random.nextInt(archiveCount) << 8) | 2, System.nanoTime());
+                int[] queue = client.getQueue(Client.URGENT);
+                dst.clear();
+                while(queue[queue.length - 1] != queue[queue.length - 2])
+                    snapshot.frameBlock(queue, client, dst);
+                return dst.position();
+            }
+
+            @Override
+            void tearDown() {
+                snapshot.release();
+            }
+        };
+    }
+
+    /**
+     * Creates all the benchmarks.
+     * @return The benchmarks.
+     */
+    static Benchmark[] create() {
+        return new Benchmark[] {
+            createArchiveRead(false),
+            createArchiveRead(true),
+            createIndexScan(),
+            createDirectBufferGet(),
+            createDirectBufferPut(),
+            createRequestDecode(),
+            createBlockFraming(false),
+            createBlockFraming(true)
+        };
+    }
+
+    /**
+     * Prevent external construction;
+     */
+    private Benchmarks() {
+    }
+}
@@ -0,0 +1,104 @@
+package org.runetekk;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.zip.CRC32;
+
+/**
+ * LoadConnection.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class LoadConnection {
+
+    /**
+     * The non-blocking {@link SocketChannel} of this connection.
+     */
+    SocketChannel channel;
+
+    /**
+     * The {@link SelectionKey} of the channel of this connection.
+     */
+    SelectionKey key;
+
+    /**
+     * The buffer that the handshake and the blocks are read into.
+     */
+    ByteBuffer readBuffer;
+
+    /**
+     * The buffer that holds the requests that are not written yet.
+     */
+    ByteBuffer writeBuffer;
+
+    /**
+     * The handshake of this connection was answered.
+     */
+    boolean handshaken;
+
+    /**
+     * The index id and archive id of each outstanding request, or -1 if the
+     * slot is free.
+     */
+    int[] archives;
+
+    /**
+     * The priority class of each outstanding request.
+     */
+    int[] priorityClasses;
+
+    /**
+     * The time in nanoseconds at which each outstanding request was sent.
+     */
+    long[] sendTimes;
+
+    /**
+     * The block that is expected next for each outstanding request.
+     */
+    int[] nextBlocks;
+
+    /**
+     * The amount of bytes received for each outstanding request.
+     */
+    int[] receivedBytes;
+
+    /**
+     * The checksum of the bytes received for each outstanding request.
+     */
+    CRC32[] checksums;
+
+    /**
+     * Gets the slot of the outstanding request for an archive.
+     * @param archive The index id and archive id.
+     * @return The slot, or -1 if no request for the archive is outstanding.
+     */
+    int find(int archive) {
+        for(int i = 0; i < archives.length; i++) {
+            if(archives[i] == archive)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Constructs a new {@link LoadConnection};
+     * @param channel The non-blocking channel of the connection.
+     * @param depth The maximum amount of outstanding requests.
+     */
+    public LoadConnection(SocketChannel channel, int depth) {
+        this.channel = channel;
+        readBuffer = ByteBuffer.allocate(65536);
+        writeBuffer = ByteBuffer.allocate(depth * Main.REQUEST_SIZE + 1);
+        archives = new int[depth];
+        priorityClasses = new int[depth];
+        sendTimes = new long[depth];
+        nextBlocks = new int[depth];
+        receivedBytes = new int[depth];
+        checksums = new CRC32[depth];
+        for(int i = 0; i < depth; i++) {
+            archives[i] = -1;
+            checksums[i] = new CRC32();
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package org.runetekk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * LoadGenerator.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class LoadGenerator {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(LoadGenerator.class.getName());
+
+    /**
+     * The amount of milliseconds between each progress report.
+     */
+    private static final long REPORT_INTERVAL = 1000L;
+
+    /**
+     * The names of the priority classes.
+     */
+    private static final String[] CLASS_NAMES = { "urgent", "priority", "passive" };
+
+    /**
+     * The {@link Selector} that the connections are registered with.
+     */
+    private Selector selector;
+
+    /**
+     * The connections.
+     */
+    private LoadConnection[] connections;
+
+    /**
+     * The maximum amount of outstanding requests of each connection.
+     */
+    private int depth;
+
+    /**
+     * The index id and archive id of every archive that can be requested.
+     */
+    private int[] archivePool;
+
+    /**
+     * The lengths of the archives indexed by index and archive id, -1 for the
+     * archives that do not exist.
+     */
+    private int[][] lengths;
+
+    /**
+     * The checksums of the archives indexed by index and archive id.
+     */
+    private int[][] checksums;
+
+    /**
+     * The cumulative weights of the priority classes that the requests are picked from.
+     */
+    private int[] weights;
+
+    /**
+     * The random archive and priority class picker.
+     */
+    private Random random;
+
+    /**
+     * The {@link Histogram}s of the microseconds from sending a request to receiving
+     * its first block, for each priority class.
+     */
+    private Histogram[] firstBlockLatencies;
+
+    /**
+     * The {@link Histogram}s of the microseconds from sending a request to receiving
+     * its last block, for each priority class.
+     */
+    private Histogram[] completionLatencies;
+
+    /**
+     * The amount of archive bytes received for each priority class.
+     */
+    private long[] classBytes;
+
+    /**
+     * The amount of bytes read since the last progress report.
+     */
+    private long intervalBytes;
+
+    /**
+     * The amount of requests completed since the last progress report.
+     */
+    private long intervalRequests;
+
+    /**
+     * The amount of connections whose handshake was answered.
+     */
+    private int handshakes;
+
+    /**
+     * The amount of blocks or archives that did not match the cache, and of
+     * connections that were lost.
+     */
+    private long errors;
+
+    /**
+     * New requests are sent once a request completes.
+     */
+    private boolean isRunning;
+
+    /**
+     * The handler that the selected keys are passed to.
+     */
+    private Consumer<SelectionKey> keyHandler;
+
+    /**
+     * Reads the lengths and checksums of all the archives of the cache that the
+     * server serves.
+     * @param fileIndexes The {@link FileIndex} array of the cache.
+     */
+    private void readArchives(FileIndex[] fileIndexes) {
+        int count = 0;
+        int[] pool = new int[1024];
+        lengths = new int[fileIndexes.length][];
+        checksums = new int[fileIndexes.length][];
+        CRC32 crc = new CRC32();
+        for(int indexId = 0; indexId < fileIndexes.length; indexId++) {
+            if(fileIndexes[indexId] == null)
+                continue;
+            int size = Math.min(0x10000, fileIndexes[indexId].getSize());
+            lengths[indexId] = new int[size];
+            checksums[indexId] = new int[size];
+            for(int archiveId = 0; archiveId < size; archiveId++) {
+                byte[] src = fileIndexes[indexId].get(archiveId);
+                lengths[indexId][archiveId] = src == null ? -1 : src.length;
+                if(src == null)
+                    continue;
+                crc.reset();
+                crc.update(src, 0, src.length & 0xFFFF);
+                checksums[indexId][archiveId] = (int) crc.getValue();
+                if(count == pool.length) {
+                    int[] array = new int[count * 2];
+                    System.arraycopy(pool, 0, array, 0, count);
+                    pool = array;
+                }
+                pool[count++] = (indexId << 16) | archiveId;
+            }
+        }
+        archivePool = new int[count];
+        System.arraycopy(pool, 0, archivePool, 0, count);
+    }
+
+    /**
+     * Queues a new request in a free slot of a connection. The archive is picked at
+     * random but never one that is already outstanding, which the server would drop.
+     * @param connection The connection.
+     * @param slot The free slot.
+     */
+    private void request(LoadConnection connection, int slot) {
+        int archive;
+        do {
+            archive = archivePool[random.nextInt(archivePool.length)];
+        } while(connection.find(archive) != -1);
+        int pick = random.nextInt(weights[weights.length - 1]);
+        int priorityClass = 0;
+        while(pick >= weights[priorityClass])
+            priorityClass++;
+        int priority = priorityClass == Client.URGENT ? 2 : priorityClass == Client.PRIORITY ? 1 : 0;
+        connection.archives[slot] = archive;
+        connection.priorityClasses[slot] = priorityClass;
+        connection.sendTimes[slot] = System.nanoTime();
+        connection.nextBlocks[slot] = 0;
+        connection.receivedBytes[slot] = 0;
+        connection.checksums[slot].reset();
+        connection.writeBuffer.putInt((archive << 8) | priority);
+    }
+
+    /**
+     * Writes the requests of a connection that are not written yet.
+     * @param connection The connection.
+     * @throws IOException An I/O error occurred while writing.
+     */
+    private void flush(LoadConnection connection) throws IOException {
+        connection.writeBuffer.flip();
+        connection.channel.write(connection.writeBuffer);
+        connection.key.interestOps(connection.writeBuffer.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        connection.writeBuffer.compact();
+    }
+
+    /**
+     * Handles the blocks that were read for a connection. Each block is checked to
+     * be the next block of an outstanding request and every completed archive is
+     * checked against the cache.
+     * @param connection The connection.
+     */
+    private void handleBlocks(LoadConnection connection) {
+        ByteBuffer buffer = connection.readBuffer;
+        while(buffer.remaining() >= Main.HEADER_SIZE) {
+            int position = buffer.position();
+            int indexId = buffer.get(position) & 0xFF;
+            int archiveId = buffer.getShort(position + 1) & 0xFFFF;
+            int size = buffer.getShort(position + 3) & 0xFFFF;
+            int block = buffer.get(position + 5) & 0xFF;
+            int length = Math.max(0, Math.min(Main.BLOCK_SIZE, size - block * Main.BLOCK_SIZE));
+            if(buffer.remaining() < Main.HEADER_SIZE + length)
+                return;
+            buffer.position(position + Main.HEADER_SIZE + length);
+            int slot = connection.find((indexId << 16) | archiveId);
+            if(slot == -1 || connection.nextBlocks[slot] != (block & 0xFF)) {
+                errors++;
+                continue;
+            }
+            long now = System.nanoTime();
+            int priorityClass = connection.priorityClasses[slot];
+            if(block == 0)
+                firstBlockLatencies[priorityClass].record((now - connection.sendTimes[slot]) / 1000L);
+            connection.checksums[slot].update(buffer.array(), position + Main.HEADER_SIZE, length);
+            connection.receivedBytes[slot] += length;
+            connection.nextBlocks[slot] = (block + 1) & 0xFF;
+            if(length == Main.BLOCK_SIZE)
+                continue;
+            if(connection.receivedBytes[slot] != (lengths[indexId][archiveId] & 0xFFFF) || (int) connection.checksums[slot].getValue() != checksums[indexId][archiveId])
+                errors++;
+            completionLatencies[priorityClass].record((now - connection.sendTimes[slot]) / 1000L);
+            classBytes[priorityClass] += connection.receivedBytes[slot];
+            intervalRequests++;
+            connection.archives[slot] = -1;
+            if(isRunning)
+                request(connection, slot);
+        }
+    }
+
+    /**
+     * Handles a selected key.
+     * @param key The selected key.
+     */
+    private void handle(SelectionKey key) {
+        LoadConnection connection = (LoadConnection) key.attachment();
+        try {
+            if(key.isConnectable()) {
+                connection.channel.finishConnect();
+                connection.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connection.writeBuffer.put((byte) 15);
+                flush(connection);
+                return;
+            }
+            if(key.isWritable())
+                flush(connection);
+            if(!key.isReadable())
+                return;
+            int read = connection.channel.read(connection.readBuffer);
+            if(read < 0)
+                throw new IOException("The server closed the connection");
+            intervalBytes += read;
+            connection.readBuffer.flip();
+            if(!connection.handshaken && connection.readBuffer.remaining() >= 8) {
+                connection.readBuffer.position(connection.readBuffer.position() + 8);
+                connection.handshaken = true;
+                handshakes++;
+                for(int i = 0; i < depth; i++)
+                    request(connection, i);
+            }
+            if(connection.handshaken)
+                handleBlocks(connection);
+            connection.readBuffer.compact();
+            flush(connection);
+        } catch(IOException ioex) {
+            LOGGER.log(Level.WARNING, "Connection lost - {0}", ioex.getMessage());
+            errors++;
+            key.cancel();
+            try {
+                connection.channel.close();
+            } catch(IOException ex) {}
+        }
+    }
+
+    /**
+     * Opens the connections and sends requests over them for an amount of time,
+     * reporting the progress every second and the results at the end.
+     * @param address The address of the server.
+     * @param connectionCount The amount of connections.
+     * @param duration The amount of seconds to send requests for.
+     * @throws IOException An I/O error occurred while connecting.
+     */
+    private void run(InetSocketAddress address, int connectionCount, long duration) throws IOException {
+        connections = new LoadConnection[connectionCount];
+        for(int i = 0; i < connectionCount; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            connections[i] = new LoadConnection(channel, depth);
+            connections[i].key = channel.register(selector, SelectionKey.OP_CONNECT, connections[i]);
+            channel.connect(address);
+        }
+        isRunning = true;
+        long startTime = System.currentTimeMillis();
+        long endTime = startTime + duration * 1000L;
+        long reportTime = startTime + REPORT_INTERVAL;
+        long currentTime;
+        while((currentTime = System.currentTimeMillis()) < endTime) {
+            selector.select(keyHandler, Math.max(1L, Math.min(reportTime, endTime) - currentTime));
+            currentTime = System.currentTimeMillis();
+            if(currentTime >= reportTime) {
+                long elapsed = currentTime - reportTime + REPORT_INTERVAL;
+                System.out.printf("%5ds %6d/%d connections %10.1f MB/s %10d req/s %8d errors%n", (currentTime - startTime) / 1000L, handshakes, connectionCount,
+                                  intervalBytes / 1000D / elapsed, intervalRequests * 1000L / elapsed, errors);
+                intervalBytes = 0L;
+                intervalRequests = 0L;
+                reportTime = currentTime + REPORT_INTERVAL;
+            }
+        }
+        isRunning = false;
+        long elapsed = currentTime - startTime;
+        for(int i = 0; i < connectionCount; i++) {
+            try {
+                connections[i].channel.close();
+            } catch(IOException ioex) {}
+        }
+        selector.close();
+        System.out.printf("%n%-9s %10s %10s %9s | %-41s | %-41s%n", "class", "requests", "MB", "MB/s", "first block ms  p50    p90    p99  p99.9    max", "complete ms     p50    p90    p99  p99.9    max");
+        for(int i = 0; i < CLASS_NAMES.length; i++) {
+            System.out.printf("%-9s %10d %10.1f %9.1f | %s | %s%n", CLASS_NAMES[i], completionLatencies[i].getCount(), classBytes[i] / 1e6, classBytes[i] / 1000D / elapsed,
+                              formatLatencies(firstBlockLatencies[i]), formatLatencies(completionLatencies[i]));
+        }
+        System.out.println("errors: " + errors);
+    }
+
+    /**
+     * Formats the percentiles of a latency histogram.
+     * @param histogram The histogram of microseconds.
+     * @return The formatted percentiles in milliseconds.
+     */
+    private static String formatLatencies(Histogram histogram) {
+        return String.format("%14s %6.2f %6.2f %6.2f %6.2f %6.1f", "", histogram.getPercentile(50D) / 1000D, histogram.getPercentile(90D) / 1000D,
+                             histogram.getPercentile(99D) / 1000D, histogram.getPercentile(99.9D) / 1000D, histogram.getMaximum() / 1000D);
+    }
+
+    /**
+     * Writes a synthetic cache and a server configuration that serves it.
+     * @param dir The directory to write to.
+     * @param size The size of the cache in megabytes.
+     * @param indexCount The amount of indexes.
+     * @param averageSize The average size of an archive.
+     * @param portOff The port offset of the server.
+     * @throws IOException An I/O error occurred while writing.
+     */
+    private static void writeCache(String dir, long size, int indexCount, int averageSize, int portOff) throws IOException {
+        int archiveCount = (int) Math.max(1L, Math.min(0xFFFF, size * 1024L * 1024L / averageSize / indexCount));
+        new SyntheticCache(dir, indexCount, archiveCount, averageSize, 1L);
+        new File(dir, "out").mkdirs();
+        Properties properties = new Properties();
+        properties.setProperty("OUTDIR", new File(dir, "out").getPath() + File.separator);
+        properties.setProperty("CACHEDIR", new File(dir).getPath() + File.separator);
+        properties.setProperty("MAINFILE", SyntheticCache.MAIN_FILE_NAME);
+        String indexIds = "";
+        for(int i = 0; i < indexCount; i++) {
+            indexIds += (i == 0 ? "" : ":") + i;
+            properties.setProperty("INDEX-" + i, "main_file_cache.idx" + (i + 1));
+        }
+        properties.setProperty("INDEXIDS", indexIds);
+        properties.setProperty("LOADFILE", "loadconfig");
+        properties.setProperty("PORTOFF", Integer.toString(portOff));
+        File file = new File(dir, "server.properties");
+        OutputStream os = new FileOutputStream(file);
+        try {
+            properties.store(os, "Synthetic cache for the load generator");
+        } finally {
+            os.close();
+        }
+        LOGGER.log(Level.INFO, "Wrote {0}, run the setup and the server with it before generating load.", file.getPath());
+    }
+
+    /**
+     * Gets the value of an option from the arguments.
+     * @param args The arguments.
+     * @param name The name of the option.
+     * @param defaultValue The value if the option is not given.
+     * @return The value.
+     */
+    private static String getOption(String[] args, String name, String defaultValue) {
+        for(int i = 0; i < args.length - 1; i++) {
+            if(args[i].equals(name))
+                return args[i + 1];
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The main starting point for the load generator.
+     * @param args The command line arguments, pairs of an option and its value.
+     *             With -write the directory to write a synthetic cache and its server
+     *             configuration to, sized by -size in megabytes, -indexes and -archive
+     *             the average archive size, for a server on -portoff. Otherwise -config
+     *             the configuration of the server to generate load for, -host its host,
+     *             -connections the amount of connections, -time the seconds to run for,
+     *             -depth the outstanding requests of each connection, -mix the weights
+     *             of the urgent, priority and passive requests and -seed.
+     * @throws IOException An I/O error occurred.
+     */
+    public static void main(String[] args) throws IOException {
+        String writeDir = getOption(args, "-write", null);
+        if(writeDir != null) {
+            writeCache(writeDir, Long.parseLong(getOption(args, "-size", "64")), Integer.parseInt(getOption(args, "-indexes", "4")),
+                       Integer.parseInt(getOption(args, "-archive", "8192")), Integer.parseInt(getOption(args, "-portoff", "1")));
+            return;
+        }
+        String config = getOption(args, "-config", null);
+        if(config == null) {
+            System.out.println("Usage: LoadGenerator -config <server.properties> [-host 127.0.0.1] [-connections 100] [-time 30] [-depth 4] [-mix 1:3:6] [-seed 1]");
+            System.out.println("       LoadGenerator -write <dir> [-size 64] [-indexes 4] [-archive 8192] [-portoff 1]");
+            return;
+        }
+        Properties properties = new Properties();
+        InputStream is = new FileInputStream(config);
+        try {
+            properties.load(is);
+        } finally {
+            is.close();
+        }
+        String[] ids = properties.getProperty("INDEXIDS").split("[:]");
+        int[] indexIds = new int[ids.length];
+        String[] indexNames = new String[ids.length];
+        int maximumIndex = 0;
+        for(int i = 0; i < ids.length; i++) {
+            indexIds[i] = Integer.parseInt(ids[i]);
+            indexNames[i] = properties.getProperty("INDEX-" + indexIds[i]);
+            maximumIndex = Math.max(maximumIndex, indexIds[i]);
+        }
+        String[] mix = getOption(args, "-mix", "1:3:6").split("[:]");
+        int[] weights = new int[Scheduler.CLASS_COUNT];
+        for(int i = 0; i < weights.length; i++)
+            weights[i] = (i == 0 ? 0 : weights[i - 1]) + Integer.parseInt(mix[i]);
+        FileIndex[] fileIndexes = Main.openFileIndexes(properties.getProperty("CACHEDIR"), properties.getProperty("MAINFILE"), indexIds, indexNames, maximumIndex, false);
+        LoadGenerator generator = new LoadGenerator(Integer.parseInt(getOption(args, "-depth", "4")), weights, Long.parseLong(getOption(args, "-seed", "1")));
+        generator.readArchives(fileIndexes);
+        if(generator.archivePool.length == 0) {
+            LOGGER.log(Level.SEVERE, "The cache has no archives to request!");
+            return;
+        }
+        generator.depth = Math.min(generator.depth, generator.archivePool.length);
+        InetSocketAddress address = new InetSocketAddress(getOption(args, "-host", "127.0.0.1"), 43594 + Integer.parseInt(properties.getProperty("PORTOFF")));
+        LOGGER.log(Level.INFO, "Requesting {0} archives from {1}.", new Object[] { generator.archivePool.length, address });
+        generator.run(address, Integer.parseInt(getOption(args, "-connections", "100")), Long.parseLong(getOption(args, "-time", "30")));
+    }
+
+    /**
+     * Constructs a new {@link LoadGenerator};
+     * @param depth The maximum amount of outstanding requests of each connection.
+     * @param weights The cumulative weights of the priority classes.
+     * @param seed The seed of the archive and priority class picker.
+     * @throws IOException An I/O error occurred while opening the selector.
+     */
+    public LoadGenerator(int depth, int[] weights, long seed) throws IOException {
+        this.depth = depth;
+        this.weights = weights;
+        random = new Random(seed);
+        selector = Selector.open();
+        firstBlockLatencies = new Histogram[Scheduler.CLASS_COUNT];
+        completionLatencies = new Histogram[Scheduler.CLASS_COUNT];
+        for(int i = 0; i < Scheduler.CLASS_COUNT; i++) {
+            firstBlockLatencies[i] = new Histogram();
+            completionLatencies[i] = new Histogram();
+        }
+        classBytes = new long[Scheduler.CLASS_COUNT];
+        keyHandler = new Consumer<SelectionKey>() {
+            @Override
+            public void accept(SelectionKey key) {
+                handle(key);
+            }
+        };
+    }
+}
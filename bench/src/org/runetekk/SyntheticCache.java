@@ -0,0 +1,167 @@
+package org.runetekk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SyntheticCache.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class SyntheticCache {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(SyntheticCache.class.getName());
+
+    /**
+     * The name of the main file.
+     */
+    static final String MAIN_FILE_NAME = "main_file_cache.dat";
+
+    /**
+     * The largest archive that can be served, the size in a block header is
+     * only two bytes.
+     */
+    private static final int MAXIMUM_ARCHIVE_SIZE = 0xFFFF;
+
+    /**
+     * The directory of the cache files.
+     */
+    private String cacheDir;
+
+    /**
+     * The ids of the indexes.
+     */
+    private int[] indexIds;
+
+    /**
+     * The names of the index files.
+     */
+    private String[] indexNames;
+
+    /**
+     * The amount of archives in each index.
+     */
+    private int archiveCount;
+
+    /**
+     * The lengths of the archives indexed by index and archive id.
+     */
+    private int[][] lengths;
+
+    /**
+     * The total amount of bytes of the archives.
+     */
+    private long totalSize;
+
+    /**
+     * Writes the cache files. Every archive is written through {@link FileIndex#put},
+     * so the files have the same 520 byte sector layout as a real cache.
+     * @param averageSize The average size of an archive.
+     * @param seed The seed of the sizes and contents of the archives.
+     * @throws IOException An I/O error occurred while writing.
+     */
+    private void write(int averageSize, long seed) throws IOException {
+        Random random = new Random(seed);
+        new File(cacheDir).mkdirs();
+        File mainFile = new File(cacheDir, MAIN_FILE_NAME);
+        mainFile.delete();
+        RandomAccessFile main = new RandomAccessFile(mainFile, "rw");
+        try {
+            for(int i = 0; i < indexIds.length; i++) {
+                File indexFile = new File(cacheDir, indexNames[i]);
+                indexFile.delete();
+                RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+                try {
+                    FileIndex fileIndex = new FileIndex(indexIds[i] + 2, main, index);
+                    lengths[i] = new int[archiveCount];
+                    for(int archiveId = 0; archiveId < archiveCount; archiveId++) {
+                        int size = Math.min(MAXIMUM_ARCHIVE_SIZE, averageSize / 2 + random.nextInt(averageSize + 1));
+                        byte[] src = new byte[size];
+                        random.nextBytes(src);
+                        if(!fileIndex.put(src, archiveId, size))
+                            throw new IOException("Failed to write archive " + archiveId + " of index " + indexIds[i]);
+                        lengths[i][archiveId] = size;
+                        totalSize += size;
+                    }
+                } finally {
+                    index.close();
+                }
+            }
+        } finally {
+            main.close();
+        }
+        LOGGER.log(Level.INFO, "Wrote {0} archives of {1} bytes in total to {2}.", new Object[] { indexIds.length * archiveCount, totalSize, cacheDir });
+    }
+
+    /**
+     * Opens the indexes of this cache.
+     * @param mapIndexes If the main file is mapped into memory.
+     * @return The {@link FileIndex} array indexed by index id.
+     * @throws IOException An I/O error occurred while opening the files.
+     */
+    FileIndex[] open(boolean mapIndexes) throws IOException {
+        return Main.openFileIndexes(cacheDir, MAIN_FILE_NAME, indexIds, indexNames, indexIds.length - 1, mapIndexes);
+    }
+
+    /**
+     * Gets the amount of indexes.
+     * @return The amount of indexes.
+     */
+    int getIndexCount() {
+        return indexIds.length;
+    }
+
+    /**
+     * Gets the amount of archives in each index.
+     * @return The amount of archives.
+     */
+    int getArchiveCount() {
+        return archiveCount;
+    }
+
+    /**
+     * Gets the lengths of the archives.
+     * @return The lengths indexed by index and archive id.
+     */
+    int[][] getLengths() {
+        return lengths;
+    }
+
+    /**
+     * Gets the total amount of bytes of the archives.
+     * @return The amount of bytes.
+     */
+    long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Constructs a new {@link SyntheticCache}; The cache files are written with
+     * random archives of a size between half and one and a half times the average.
+     * @param cacheDir The directory to write the cache files to.
+     * @param indexCount The amount of indexes.
+     * @param archiveCount The amount of archives in each index.
+     * @param averageSize The average size of an archive.
+     * @param seed The seed of the sizes and contents of the archives.
+     * @throws IOException An I/O error occurred while writing.
+     */
+    public SyntheticCache(String cacheDir, int indexCount, int archiveCount, int averageSize, long seed) throws IOException {
+        this.cacheDir = cacheDir.endsWith(File.separator) ? cacheDir : cacheDir + File.separator;
+        this.archiveCount = archiveCount;
+        indexIds = new int[indexCount];
+        indexNames = new String[indexCount];
+        for(int i = 0; i < indexCount; i++) {
+            indexIds[i] = i;
+            indexNames[i] = "main_file_cache.idx" + (i + 1);
+        }
+        lengths = new int[indexCount][];
+        write(averageSize, seed);
+    }
+}
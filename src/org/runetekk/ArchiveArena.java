@@ -0,0 +1,196 @@
+package org.runetekk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ArchiveArena.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class ArchiveArena {
+
+    /**
+     * The shift of the slab id in an archive offset.
+     */
+    private static final int SLAB_SHIFT = 28;
+
+    /**
+     * The maximum amount of bytes in a slab. An archive never spans two slabs.
+     */
+    private static final int SLAB_SIZE = 1 << SLAB_SHIFT;
+
+    /**
+     * The direct buffers that the archives are packed into.
+     */
+    private ByteBuffer[] slabs;
+
+    /**
+     * The offsets of the archives, the high bits hold the slab id and the low
+     * bits the position in the slab.
+     */
+    private long[][] offsets;
+
+    /**
+     * The lengths of the archives, or -1 if an archive is not in this arena.
+     */
+    private int[][] lengths;
+
+    /**
+     * The archives are stored as the blocks that are written to the clients,
+     * each block preceded by its header.
+     */
+    private boolean framed;
+
+    /**
+     * The total amount of bytes in this arena.
+     */
+    private long capacity;
+
+    /**
+     * The amount of bytes in this arena taken by block headers.
+     */
+    private long framingOverhead;
+
+    /**
+     * Puts the source of an archive into its reserved region.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @param src The source byte array, its length must be the reserved length.
+     */
+    public void put(int indexId, int archiveId, byte[] src) {
+        if(src.length != lengths[indexId][archiveId])
+            throw new IllegalArgumentException("Archive " + archiveId + " of index " + indexId + " does not match its reserved length");
+        long offset = offsets[indexId][archiveId];
+        if(framed)
+            src = Main.frameArchive(indexId, archiveId, src);
+        slabs[(int) (offset >>> SLAB_SHIFT)].put((int) (offset & (SLAB_SIZE - 1)), src);
+    }
+
+    /**
+     * Gets the length of an archive.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @return The length or -1 if the archive is not in this arena.
+     */
+    public int getLength(int indexId, int archiveId) {
+        if(indexId < 0 || indexId >= lengths.length || lengths[indexId] == null)
+            return -1;
+        if(archiveId < 0 || archiveId >= lengths[indexId].length)
+            return -1;
+        return lengths[indexId][archiveId];
+    }
+
+    /**
+     * Gets bytes from an archive and puts them into another buffer. The archive
+     * must not be stored pre-framed.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @param pos The position of the bytes to get in the archive.
+     * @param len The amount of bytes to get.
+     * @param dst The buffer to put the bytes into.
+     */
+    public void get(int indexId, int archiveId, int pos, int len, ByteBuffer dst) {
+        long offset = offsets[indexId][archiveId];
+        dst.put(dst.position(), slabs[(int) (offset >>> SLAB_SHIFT)], (int) (offset & (SLAB_SIZE - 1)) + pos, len);
+        dst.position(dst.position() + len);
+    }
+
+    /**
+     * Gets a block of a pre-framed archive, header included, and puts it into
+     * another buffer with a single bulk copy.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @param block The block to get.
+     * @param dst The buffer to put the block into.
+     */
+    public void getFramedBlock(int indexId, int archiveId, int block, ByteBuffer dst) {
+        int len = Main.HEADER_SIZE + Math.min(Main.BLOCK_SIZE, (lengths[indexId][archiveId] & 0xFFFF) - block * Main.BLOCK_SIZE);
+        long offset = offsets[indexId][archiveId];
+        dst.put(dst.position(), slabs[(int) (offset >>> SLAB_SHIFT)], (int) (offset & (SLAB_SIZE - 1)) + block * Client.FRAMED_BLOCK_SIZE, len);
+        dst.position(dst.position() + len);
+    }
+
+    /**
+     * Gets if the archives in this arena are stored pre-framed.
+     * @return If the archives are pre-framed.
+     */
+    public boolean isFramed() {
+        return framed;
+    }
+
+    /**
+     * Gets the amount of bytes in this arena taken by block headers.
+     * @return The amount of bytes.
+     */
+    public long getFramingOverhead() {
+        return framingOverhead;
+    }
+
+    /**
+     * Gets the total amount of bytes in this arena.
+     * @return The capacity.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the amount of slabs in this arena.
+     * @return The amount of slabs.
+     */
+    public int getSlabCount() {
+        return slabs.length;
+    }
+
+    /**
+     * Destroys this {@link ArchiveArena} and frees the memory of its slabs.
+     * This {@link ArchiveArena} will not be usable after it is destroyed.
+     */
+    public void destroy() {
+        for(int i = 0; i < slabs.length; i++)
+            DirectBuffer.free(slabs[i]);
+        slabs = null;
+        offsets = null;
+        lengths = null;
+    }
+
+    /**
+     * Constructs a new {@link ArchiveArena}; The regions for all the archives
+     * are reserved up front and packed into as few slabs as possible.
+     * @param lengths The lengths of the archives indexed by index and archive id,
+     *                -1 for the archives that are not in the arena.
+     * @param framed If the archives are stored pre-framed.
+     */
+    public ArchiveArena(int[][] lengths, boolean framed) {
+        this.lengths = lengths;
+        this.framed = framed;
+        offsets = new long[lengths.length][];
+        int[] slabSizes = new int[1];
+        int slab = 0;
+        for(int i = 0; i < lengths.length; i++) {
+            if(lengths[i] == null)
+                continue;
+            offsets[i] = new long[lengths[i].length];
+            for(int j = 0; j < lengths[i].length; j++) {
+                if(lengths[i][j] < 0)
+                    continue;
+                int length = framed ? Main.getFramedLength(lengths[i][j]) : lengths[i][j];
+                if(slabSizes[slab] + length > SLAB_SIZE) {
+                    if(++slab == slabSizes.length) {
+                        int[] array = new int[slabSizes.length * 2];
+                        System.arraycopy(slabSizes, 0, array, 0, slabSizes.length);
+                        slabSizes = array;
+                    }
+                }
+                offsets[i][j] = ((long) slab << SLAB_SHIFT) | slabSizes[slab];
+                slabSizes[slab] += length;
+                capacity += length;
+                if(framed)
+                    framingOverhead += length - (lengths[i][j] & 0xFFFF);
+            }
+        }
+        slabs = new ByteBuffer[slab + 1];
+        for(int i = 0; i < slabs.length; i++)
+            slabs[i] = ByteBuffer.allocateDirect(slabSizes[i]);
+    }
+}
@@ -0,0 +1,276 @@
+package org.runetekk;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ArchiveCache.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class ArchiveCache {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ArchiveCache.class.getName());
+
+    /**
+     * The {@link VarHandle} that the slots of the resident archives are read and
+     * written through, so that a resident archive is found without the lock.
+     */
+    private static final VarHandle RESIDENT_ARCHIVE = MethodHandles.arrayElementVarHandle(DirectBuffer[].class);
+
+    /**
+     * The {@link FileIndex} array to load the archives from.
+     */
+    private FileIndex[] fileIndexes;
+
+    /**
+     * The archives that are known to exist for each index. Requests for
+     * any other archive never reach the disk.
+     */
+    private BitSet[] knownArchives;
+
+    /**
+     * The archives of each index that are currently being loaded.
+     */
+    private BitSet[] loadingArchives;
+
+    /**
+     * The resident archives of each index that were used since the eviction
+     * clock last passed them. The flags are set without the lock, a flag that is
+     * lost to a race only costs the archive its second chance.
+     */
+    private boolean[][] referencedArchives;
+
+    /**
+     * The indexes whose archives are always resident and are never
+     * loaded through this cache.
+     */
+    private boolean[] pinnedIndexes;
+
+    /**
+     * The resident archives indexed by their index and archive id. The slots are
+     * sized once the archives are registered and are only written under the lock.
+     */
+    private DirectBuffer[][] residentArchives;
+
+    /**
+     * The keys of the resident archives in the order they are passed by the
+     * eviction clock. The high bits of a key hold the index id and the low 
+     * bits the archive id.
+     */
+    private int[] residentKeys;
+
+    /**
+     * The position of the next key the eviction clock passes.
+     */
+    private int residentHead;
+
+    /**
+     * The amount of resident archives.
+     */
+    private int residentCount;
+
+    /**
+     * The maximum amount of bytes held by the resident archives.
+     */
+    private long budget;
+
+    /**
+     * The amount of bytes currently held by the resident archives.
+     */
+    private long size;
+
+    /**
+     * The amount of requests of each index that found their archive resident.
+     */
+    private LongAdder[] hits;
+
+    /**
+     * The amount of requests of each index whose archive was loaded from the disk.
+     */
+    private long[] misses;
+
+    /**
+     * Registers an archive that is known to exist.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     */
+    void register(int indexId, int archiveId) {
+        if(knownArchives[indexId] == null) {
+            knownArchives[indexId] = new BitSet();
+            loadingArchives[indexId] = new BitSet();
+            residentArchives[indexId] = new DirectBuffer[0];
+            referencedArchives[indexId] = new boolean[0];
+        }
+        knownArchives[indexId].set(archiveId);
+        if(archiveId >= residentArchives[indexId].length) {
+            residentArchives[indexId] = Arrays.copyOf(residentArchives[indexId], archiveId + 1);
+            referencedArchives[indexId] = Arrays.copyOf(referencedArchives[indexId], archiveId + 1);
+        }
+    }
+
+    /**
+     * Gets if the archives of an index are pinned.
+     * @param indexId The index id.
+     * @return If the archives of the index are always resident.
+     */
+    boolean isPinned(int indexId) {
+        return pinnedIndexes[indexId];
+    }
+
+    /**
+     * Gets the {@link DirectBuffer} for an archive, loading it from its
+     * {@link FileIndex} if it is not resident. A resident archive is found without
+     * taking the lock and without allocating, the lock is only taken on a miss.
+     * When multiple threads miss the same archive at once only the first one reads
+     * it, the others wait for it to be loaded. A request is counted as a hit or a
+     * miss only once, when its first block is served.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @param counted If the lookup is counted as a hit or a miss.
+     * @return The buffer or null if the archive does not exist.
+     */
+    DirectBuffer get(int indexId, int archiveId, boolean counted) {
+        DirectBuffer[] archives = residentArchives[indexId];
+        if(archives != null && archiveId < archives.length) {
+            DirectBuffer buffer = (DirectBuffer) RESIDENT_ARCHIVE.getAcquire(archives, archiveId);
+            if(buffer != null) {
+                referencedArchives[indexId][archiveId] = true;
+                if(counted)
+                    hits[indexId].increment();
+                return buffer;
+            }
+        }
+        synchronized(this) {
+            for(;;) {
+                if(knownArchives[indexId] == null || !knownArchives[indexId].get(archiveId))
+                    return null;
+                if(residentArchives[indexId][archiveId] != null) {
+                    referencedArchives[indexId][archiveId] = true;
+                    if(counted)
+                        hits[indexId].increment();
+                    return residentArchives[indexId][archiveId];
+                }
+                if(!loadingArchives[indexId].get(archiveId))
+                    break;
+                try {
+                    wait();
+                } catch(InterruptedException ex) {
+                    return null;
+                }
+            }
+            loadingArchives[indexId].set(archiveId);
+            if(counted)
+                misses[indexId]++;
+        }
+        DirectBuffer buffer = null;
+        try {
+            byte[] src = fileIndexes[indexId].get(archiveId);
+            if(src != null) {
+                buffer = new DirectBuffer();
+                buffer.put(src);
+            }
+        } finally {
+            synchronized(this) {
+                loadingArchives[indexId].clear(archiveId);
+                if(buffer != null) {
+                    RESIDENT_ARCHIVE.setRelease(residentArchives[indexId], archiveId, buffer);
+                    addResidentKey(indexId << 16 | archiveId);
+                    size += buffer.getCapacity();
+                    evict();
+                } else {
+                    LOGGER.log(Level.WARNING, "Failed to load archive {0} of index {1}!", new Object[] { archiveId, indexId });
+                    knownArchives[indexId].clear(archiveId);
+                }
+                notifyAll();
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Gets the amount of requests of each index that found their archive resident.
+     * @return The amounts indexed by index id.
+     */
+    long[] getHits() {
+        long[] amounts = new long[hits.length];
+        for(int i = 0; i < hits.length; i++)
+            amounts[i] = hits[i].sum();
+        return amounts;
+    }
+
+    /**
+     * Gets the amount of requests of each index whose archive was loaded from the disk.
+     * @return The amounts indexed by index id.
+     */
+    synchronized long[] getMisses() {
+        return misses.clone();
+    }
+
+    /**
+     * Adds the key of a resident archive behind the eviction clock.
+     * @param key The key of the archive.
+     */
+    private void addResidentKey(int key) {
+        if(residentCount == residentKeys.length) {
+            int[] keys = new int[residentKeys.length * 2];
+            for(int i = 0; i < residentCount; i++)
+                keys[i] = residentKeys[(residentHead + i) % residentKeys.length];
+            residentKeys = keys;
+            residentHead = 0;
+        }
+        residentKeys[(residentHead + residentCount++) % residentKeys.length] = key;
+    }
+
+    /**
+     * Evicts archives until the resident archives fit in the budget. The
+     * eviction clock gives every archive that was used since it last passed 
+     * it a second chance, which approximates evicting the least recently
+     * used archives without keeping an ordered list of every access.
+     */
+    private void evict() {
+        while(size > budget && residentCount > 0) {
+            int key = residentKeys[residentHead];
+            residentHead = (residentHead + 1) % residentKeys.length;
+            residentCount--;
+            int indexId = key >>> 16;
+            int archiveId = key & 0xFFFF;
+            if(referencedArchives[indexId][archiveId]) {
+                referencedArchives[indexId][archiveId] = false;
+                addResidentKey(key);
+                continue;
+            }
+            size -= residentArchives[indexId][archiveId].getCapacity();
+            RESIDENT_ARCHIVE.setRelease(residentArchives[indexId], archiveId, (DirectBuffer) null);
+        }
+    }
+
+    /**
+     * Constructs a new {@link ArchiveCache};
+     * @param fileIndexes The {@link FileIndex} array to load the archives from.
+     * @param pinnedIndexes The indexes whose archives are always resident.
+     * @param budget The maximum amount of bytes held by the resident archives.
+     */
+    public ArchiveCache(FileIndex[] fileIndexes, boolean[] pinnedIndexes, long budget) {
+        this.fileIndexes = fileIndexes;
+        this.pinnedIndexes = pinnedIndexes;
+        this.budget = budget;
+        knownArchives = new BitSet[fileIndexes.length];
+        loadingArchives = new BitSet[fileIndexes.length];
+        referencedArchives = new boolean[fileIndexes.length][];
+        residentArchives = new DirectBuffer[fileIndexes.length][];
+        residentKeys = new int[256];
+        hits = new LongAdder[fileIndexes.length];
+        for(int i = 0; i < hits.length; i++)
+            hits[i] = new LongAdder();
+        misses = new long[fileIndexes.length];
+    }
+}
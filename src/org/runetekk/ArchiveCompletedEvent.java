@@ -0,0 +1,75 @@
+package org.runetekk;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * ArchiveCompletedEvent.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+@Name("org.runetekk.ArchiveCompleted")
+@Label("Archive Completed")
+@Description("The last block of a request was framed, emitted only if the request took at least the latency threshold")
+@Category("Ondemand")
+@StackTrace(false)
+public final class ArchiveCompletedEvent extends Event {
+
+    /**
+     * The id of the client.
+     */
+    @Label("Client Id")
+    long clientId;
+
+    /**
+     * The id of the index of the requested archive.
+     */
+    @Label("Index Id")
+    int indexId;
+
+    /**
+     * The id of the requested archive.
+     */
+    @Label("Archive Id")
+    int archiveId;
+
+    /**
+     * The priority of the request, 2 for urgent, 1 for priority and 0 for passive.
+     */
+    @Label("Priority")
+    int priority;
+
+    /**
+     * The size of the archive, or 0 if the archive is missing.
+     */
+    @Label("Size")
+    @DataAmount
+    int size;
+
+    /**
+     * The amount of nanoseconds between the request being queued and its last block
+     * being framed.
+     */
+    @Label("Latency")
+    @Timespan
+    long latency;
+
+    /**
+     * Gets if the request took at least the latency threshold.
+     * @param threshold The {@link LatencyThreshold}.
+     * @return If the event should be committed.
+     */
+    @Name("latencyThreshold")
+    @Label("Latency Threshold")
+    @SettingDefinition
+    protected boolean latencyThreshold(LatencyThreshold threshold) {
+        return latency >= threshold.getNanos();
+    }
+}
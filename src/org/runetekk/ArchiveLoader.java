@@ -0,0 +1,151 @@
+package org.runetekk;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ArchiveLoader.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class ArchiveLoader extends RecursiveAction {
+
+    /**
+     * The serial version unique id.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ArchiveLoader.class.getName());
+
+    /**
+     * The maximum amount of archives that are loaded by a single task
+     * without splitting it.
+     */
+    private static final int SPLIT_THRESHOLD = 64;
+
+    /**
+     * The amount of progress reports that are logged while loading.
+     */
+    private static final int PROGRESS_STEPS = 10;
+
+    /**
+     * The {@link FileIndex} array to load the archives from.
+     */
+    private FileIndex[] fileIndexes;
+
+    /**
+     * The {@link ArchiveArena} to put the archives into.
+     */
+    private ArchiveArena archiveArena;
+
+    /**
+     * The archives in the order of the LOADFILE, the high bits of a record
+     * hold the index id and the low bits the archive id.
+     */
+    private int[] records;
+
+    /**
+     * The CRC32 of the archives of the records, or null if the archives are
+     * not verified.
+     */
+    private int[] checksums;
+
+    /**
+     * The first record loaded by this task.
+     */
+    private int from;
+
+    /**
+     * The record after the last one loaded by this task.
+     */
+    private int to;
+
+    /**
+     * The amount of archives loaded by all the tasks so far.
+     */
+    private AtomicInteger loaded;
+
+    /**
+     * The total amount of archives loaded by all the tasks.
+     */
+    private int total;
+
+    @Override
+    protected void compute() {
+        if(to - from > SPLIT_THRESHOLD || (records[from] >>> 16) != (records[to - 1] >>> 16)) {
+            int middle = from + (to - from) / 2;
+            int indexId = records[from] >>> 16;
+            if((records[to - 1] >>> 16) != indexId) {
+                middle = from + 1;
+                while((records[middle] >>> 16) == indexId)
+                    middle++;
+            }
+            invokeAll(new ArchiveLoader(this, from, middle), new ArchiveLoader(this, middle, to));
+            return;
+        }
+        CRC32 crc = checksums == null ? null : new CRC32();
+        for(int i = from; i < to; i++) {
+            int indexId = records[i] >>> 16;
+            int archiveId = records[i] & 0xFFFF;
+            byte[] src = fileIndexes[indexId].get(archiveId);
+            if(src == null)
+                throw new IllegalStateException("Failed to load archive " + archiveId + " of index " + indexId);
+            if(crc != null) {
+                crc.reset();
+                crc.update(src, 0, src.length);
+                if((int) crc.getValue() != checksums[i])
+                    throw new IllegalStateException("Archive " + archiveId + " of index " + indexId + " does not match its checksum");
+            }
+            archiveArena.put(indexId, archiveId, src);
+        }
+        int previous = loaded.getAndAdd(to - from);
+        int step = (int) ((long) (previous + to - from) * PROGRESS_STEPS / total);
+        if(step > (int) ((long) previous * PROGRESS_STEPS / total))
+            LOGGER.log(Level.INFO, "Loaded {0} of {1} archives.", new Object[] { previous + to - from, total });
+    }
+
+    /**
+     * Constructs a new {@link ArchiveLoader} for a part of the records of
+     * another task.
+     * @param parent The task to split.
+     * @param from The first record to load.
+     * @param to The record after the last one to load.
+     */
+    private ArchiveLoader(ArchiveLoader parent, int from, int to) {
+        this.fileIndexes = parent.fileIndexes;
+        this.archiveArena = parent.archiveArena;
+        this.records = parent.records;
+        this.checksums = parent.checksums;
+        this.from = from;
+        this.to = to;
+        this.loaded = parent.loaded;
+        this.total = parent.total;
+    }
+
+    /**
+     * Constructs a new {@link ArchiveLoader}; The task splits itself by index,
+     * then by archive range, and decodes every archive of the records into
+     * its reserved region of the arena.
+     * @param fileIndexes The {@link FileIndex} array to load the archives from.
+     * @param archiveArena The {@link ArchiveArena} to put the archives into.
+     * @param records The archives to load.
+     * @param checksums The CRC32 of the archives to verify them against, or null.
+     * @param recordCount The amount of records, at least one.
+     */
+    public ArchiveLoader(FileIndex[] fileIndexes, ArchiveArena archiveArena, int[] records, int[] checksums, int recordCount) {
+        this.fileIndexes = fileIndexes;
+        this.archiveArena = archiveArena;
+        this.records = records;
+        this.checksums = checksums;
+        this.from = 0;
+        this.to = recordCount;
+        this.loaded = new AtomicInteger();
+        this.total = recordCount;
+    }
+}
@@ -0,0 +1,111 @@
+package org.runetekk;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * ArchivePack.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class ArchivePack {
+
+    /**
+     * The {@link FileChannel} of the pack file. The archives are stored in the
+     * pack file in the order of the LOADFILE, each as the framed blocks that are
+     * written to the clients.
+     */
+    private FileChannel channel;
+
+    /**
+     * The positions of the archives in the pack file.
+     */
+    private long[][] offsets;
+
+    /**
+     * The lengths of the archives, or -1 if an archive is not in the pack file.
+     */
+    private int[][] lengths;
+
+    /**
+     * Gets the length of an archive.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @return The length or -1 if the archive is not in the pack file.
+     */
+    public int getLength(int indexId, int archiveId) {
+        if(indexId < 0 || indexId >= lengths.length || lengths[indexId] == null)
+            return -1;
+        if(archiveId < 0 || archiveId >= lengths[indexId].length)
+            return -1;
+        return lengths[indexId][archiveId];
+    }
+
+    /**
+     * Gets the position of a framed block in the pack file.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @param block The block.
+     * @return The position of the header of the block.
+     */
+    public long getPosition(int indexId, int archiveId, int block) {
+        return offsets[indexId][archiveId] + (long) block * Client.FRAMED_BLOCK_SIZE;
+    }
+
+    /**
+     * Transfers bytes of the pack file to a channel. The bytes are sent by the
+     * operating system straight from the file without being copied into the
+     * application.
+     * @param position The position of the bytes in the pack file.
+     * @param count The maximum amount of bytes to transfer.
+     * @param target The channel to transfer the bytes to.
+     * @return The amount of bytes transferred.
+     * @throws IOException An I/O error occurred while transferring or the pack file
+     *                     ends before the bytes.
+     */
+    public long transferTo(long position, int count, WritableByteChannel target) throws IOException {
+        long transferred = channel.transferTo(position, count, target);
+        if(transferred == 0L && position + count > channel.size())
+            throw new IOException("Pack file ends at " + channel.size() + " bytes, before the transfer of " + count + " bytes at " + position);
+        return transferred;
+    }
+
+    /**
+     * Destroys this {@link ArchivePack}.
+     */
+    public void destroy() {
+        try {
+            channel.close();
+        } catch(IOException ioex) {}
+        offsets = null;
+        lengths = null;
+    }
+
+    /**
+     * Constructs a new {@link ArchivePack};
+     * @param channel The {@link FileChannel} of the pack file.
+     * @param lengths The lengths of the archives indexed by index and archive id,
+     *                -1 for the archives that are not in the pack file.
+     * @param records The archives in the order of the LOADFILE, the high bits of
+     *                a record hold the index id and the low bits the archive id.
+     * @param recordCount The amount of records.
+     * @throws IOException The pack file does not match the records.
+     */
+    public ArchivePack(FileChannel channel, int[][] lengths, int[] records, int recordCount) throws IOException {
+        this.channel = channel;
+        this.lengths = lengths;
+        offsets = new long[lengths.length][];
+        long position = 0L;
+        for(int i = 0; i < recordCount; i++) {
+            int indexId = records[i] >>> 16;
+            int archiveId = records[i] & 0xFFFF;
+            if(offsets[indexId] == null)
+                offsets[indexId] = new long[lengths[indexId].length];
+            offsets[indexId][archiveId] = position;
+            position += Main.getFramedLength(lengths[indexId][archiveId]);
+        }
+        if(position != channel.size())
+            throw new IOException("Pack file holds " + channel.size() + " bytes, the LOADFILE expects " + position);
+    }
+}
@@ -0,0 +1,120 @@
+package org.runetekk;
+
+import java.io.File;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ArchiveReloader.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class ArchiveReloader implements Runnable {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ArchiveReloader.class.getName());
+
+    /**
+     * The amount of milliseconds between each check of the trigger file.
+     */
+    private static final long CHECK_INTERVAL = 1000L;
+
+    /**
+     * The local thread.
+     */
+    private Thread thread;
+
+    /**
+     * The local thread is currently paused.
+     */
+    private boolean isPaused;
+
+    /**
+     * The file that triggers a reload whenever it is touched.
+     */
+    private File triggerFile;
+
+    /**
+     * The time at which the trigger file was last modified when it was last checked.
+     */
+    private long lastModified;
+
+    /**
+     * The {@link SnapshotLoader} that the new snapshots are loaded with.
+     */
+    private SnapshotLoader snapshotLoader;
+
+    @Override
+    public void run() {
+        for(;;) {
+            synchronized(this) {
+                if(isPaused)
+                    break;
+                try {
+                    wait(CHECK_INTERVAL);
+                } catch(InterruptedException ex) {
+                    break;
+                }
+                if(isPaused)
+                    break;
+            }
+            long modified = triggerFile.lastModified();
+            if(modified == lastModified)
+                continue;
+            lastModified = modified;
+            LOGGER.log(Level.INFO, "Reloading the archives.");
+            ArchiveSnapshot snapshot;
+            try {
+                snapshot = snapshotLoader.load();
+            } catch(Exception ex) {
+                LOGGER.log(Level.SEVERE, "Exception caught while reloading the archives, the current archives are kept - ", ex);
+                continue;
+            }
+            Main.swapSnapshot(snapshot);
+            LOGGER.log(Level.INFO, "Reloaded {0} archives, the previous archives are released once no client is served from them.", snapshot.getArchiveCount());
+        }
+    }
+
+    /**
+     * Initializes the local thread.
+     */
+    private void initialize() {
+        thread = new Thread(this, "ArchiveReloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Destroys this local application.
+     */
+    public void destroy() {
+        if(!isPaused)  {
+            if(thread != null) {
+                synchronized(this) {
+                    isPaused = true;
+                    notifyAll();
+                }
+                try {
+                    thread.join();
+                } catch(InterruptedException ex) {
+                }
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Constructs a new {@link ArchiveReloader}; The archives are reloaded in the
+     * background whenever the modification time of the trigger file changes.
+     * @param triggerFile The file that triggers a reload whenever it is touched.
+     * @param snapshotLoader The {@link SnapshotLoader} to load the new snapshots with.
+     */
+    public ArchiveReloader(File triggerFile, SnapshotLoader snapshotLoader) {
+        this.triggerFile = triggerFile;
+        this.snapshotLoader = snapshotLoader;
+        lastModified = triggerFile.lastModified();
+        initialize();
+    }
+}
@@ -0,0 +1,278 @@
+package org.runetekk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ArchiveSnapshot.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class ArchiveSnapshot {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ArchiveSnapshot.class.getName());
+
+    /**
+     * The {@link FileIndex} array that the archives were loaded from.
+     */
+    private FileIndex[] fileIndexes;
+
+    /**
+     * The {@link ArchiveArena} that the preloaded archives are packed into, or
+     * null if the archives are transferred from the pack file.
+     */
+    private ArchiveArena archiveArena;
+
+    /**
+     * The {@link ArchiveCache} that the archives of the indexes which are not
+     * pinned are lazily loaded into, or null if every archive is preloaded.
+     */
+    private ArchiveCache archiveCache;
+
+    /**
+     * The {@link ArchivePack} that the archives are transferred from, or null if
+     * the archives are served from memory.
+     */
+    private ArchivePack archivePack;
+
+    /**
+     * The amount of archives in this snapshot.
+     */
+    private int archiveCount;
+
+    /**
+     * The amount of references to this snapshot. The server holds one for as
+     * long as this is the current snapshot and each client holds one while it
+     * is being served from it. The snapshot is destroyed once the last one is
+     * released.
+     */
+    private AtomicInteger references;
+
+    /**
+     * Acquires a reference to this snapshot.
+     * @return If the reference was acquired, false if this snapshot was already destroyed.
+     */
+    boolean acquire() {
+        for(;;) {
+            int count = references.get();
+            if(count == 0)
+                return false;
+            if(references.compareAndSet(count, count + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Releases a reference to this snapshot and destroys it if it was the last one.
+     */
+    void release() {
+        if(references.decrementAndGet() == 0)
+            destroy();
+    }
+
+    /**
+     * Gets the length of an archive. The length is looked up once for every request,
+     * which counts the request as a hit or a miss of the {@link ArchiveCache}.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @return The length or -1 if the archive is not loaded.
+     */
+    int getArchiveLength(int indexId, int archiveId) {
+        if(archiveCache != null && indexId >= 0 && indexId < fileIndexes.length && !archiveCache.isPinned(indexId)) {
+            DirectBuffer buffer = archiveCache.get(indexId, archiveId, true);
+            return buffer == null ? -1 : buffer.getCapacity();
+        }
+        return archiveArena.getLength(indexId, archiveId);
+    }
+
+    /**
+     * Gets bytes from an archive and puts them into another buffer.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @param pos The position of the bytes to get in the archive.
+     * @param len The amount of bytes to get.
+     * @param dst The buffer to put the bytes into.
+     * @return If the bytes were put, false if a lazily loaded archive was evicted
+     *         and could not be loaded again.
+     */
+    boolean getArchive(int indexId, int archiveId, int pos, int len, ByteBuffer dst) {
+        if(archiveCache != null && !archiveCache.isPinned(indexId)) {
+            DirectBuffer buffer = archiveCache.get(indexId, archiveId, false);
+            if(buffer == null) {
+                LOGGER.log(Level.WARNING, "Archive {0} of index {1} could not be loaded again during its transfer!", new Object[] { archiveId, indexId });
+                return false;
+            }
+            buffer.get(pos, len, dst);
+            return true;
+        }
+        archiveArena.get(indexId, archiveId, pos, len, dst);
+        return true;
+    }
+
+    /**
+     * Frames the next block of the request at the head of a queue into a buffer. The
+     * transfer state of the queue is advanced and the request is removed from the queue
+     * once its last block has been framed. Blocks of pre-framed archives are copied as
+     * they are stored. A block of an archive that cannot be read any more is not
+     * framed, the archive is left cut short and the client has to be destroyed.
+     * @param queue The queue to frame the block for.
+     * @param client The client that the queue belongs to.
+     * @param dst The buffer to put the header and the block into.
+     * @return If the block was framed.
+     */
+    boolean frameBlock(int[] queue, Client client, ByteBuffer dst) {
+        int hash = queue[queue[queue.length - 2]];
+        int archiveId = (hash & 0xFFFF00) >> 8;
+        int indexId = (hash & 0xFF000000) >> 24;
+        int length;
+        if(queue[queue.length - 3] == 0) {
+            client.recordFirstBlock(queue);
+            if((length = getArchiveLength(indexId, archiveId)) >= 0)
+                queue[queue.length - 3] = (length & 0xFFFF) << 8;
+        }
+        int size = (queue[queue.length - 3] & 0xFFFF00) >> 8;
+        int block = queue[queue.length - 3] & 0xFF;
+        int write = size - (block * Main.BLOCK_SIZE);
+        if(write > Main.BLOCK_SIZE)
+            write = Main.BLOCK_SIZE;
+        if(archiveArena.isFramed() && archiveArena.getLength(indexId, archiveId) >= 0 && (archiveCache == null || archiveCache.isPinned(indexId)))
+            archiveArena.getFramedBlock(indexId, archiveId, block, dst);
+        else {
+            int position = dst.position();
+            Main.putHeader(indexId, archiveId, size, block, dst);
+            if(write > 0 && !getArchive(indexId, archiveId, Main.BLOCK_SIZE * block, write, dst)) {
+                dst.position(position);
+                return false;
+            }
+        }
+        if(write < Main.BLOCK_SIZE)
+            client.popRequest(queue);
+        else
+            queue[queue.length - 3] = (queue[queue.length - 3] & ~0xFF) | (block + 1);
+        return true;
+    }
+
+    /**
+     * Frames the header of a missing archive, or points the transfer of a client at
+     * the next framed blocks of the request at the head of a queue in the pack file.
+     * The transfer covers as many blocks of the request as fit in the budget but always
+     * at least one. The transfer state of the queue is advanced past these blocks. A
+     * transfer that covers the last block of the request leaves the request at the head
+     * of the queue until the transfer completes.
+     * @param queue The queue to frame the blocks for.
+     * @param client The client to frame the blocks for.
+     * @param budget The maximum amount of bytes to transfer.
+     * @return The amount of blocks framed or transferred.
+     */
+    int frameTransfer(int[] queue, Client client, int budget) {
+        int hash = queue[queue[queue.length - 2]];
+        int archiveId = (hash & 0xFFFF00) >> 8;
+        int indexId = (hash & 0xFF000000) >> 24;
+        int length = archivePack.getLength(indexId, archiveId);
+        if(queue[queue.length - 3] == 0)
+            client.recordFirstBlock(queue);
+        if(length < 0) {
+            Main.putHeader(indexId, archiveId, 0, 0, client.writeBuffer);
+            client.popRequest(queue);
+            return 1;
+        }
+        if(queue[queue.length - 3] == 0)
+            queue[queue.length - 3] = (length & 0xFFFF) << 8;
+        int size = (queue[queue.length - 3] & 0xFFFF00) >> 8;
+        int block = queue[queue.length - 3] & 0xFF;
+        int blocks = Math.max(1, budget / Client.FRAMED_BLOCK_SIZE);
+        client.transferPosition = archivePack.getPosition(indexId, archiveId, block);
+        if(block + blocks > size / Main.BLOCK_SIZE) {
+            blocks = size / Main.BLOCK_SIZE + 1 - block;
+            client.transferRemaining = Main.getFramedLength(length) - block * Client.FRAMED_BLOCK_SIZE;
+            client.transferQueue = queue;
+            queue[queue.length - 3] = (queue[queue.length - 3] & ~0xFF) | (block + blocks);
+            return blocks;
+        }
+        client.transferRemaining = blocks * Client.FRAMED_BLOCK_SIZE;
+        queue[queue.length - 3] = (queue[queue.length - 3] & ~0xFF) | (block + blocks);
+        return blocks;
+    }
+
+    /**
+     * Transfers the pending bytes of a client from the pack file to its channel.
+     * @param client The client to transfer the bytes to.
+     * @return The amount of bytes transferred.
+     * @throws IOException An I/O error occurred while transferring.
+     */
+    int transfer(Client client) throws IOException {
+        int transferred = (int) archivePack.transferTo(client.transferPosition, client.transferRemaining, client.channel);
+        client.transferPosition += transferred;
+        client.transferRemaining -= transferred;
+        return transferred;
+    }
+
+    /**
+     * Gets if the archives are transferred from the pack file.
+     * @return If the archives are transferred from the pack file.
+     */
+    boolean isPacked() {
+        return archivePack != null;
+    }
+
+    /**
+     * Gets the {@link ArchiveCache} that the archives of the indexes which are not
+     * pinned are lazily loaded into.
+     * @return The cache, or null if every archive is preloaded.
+     */
+    ArchiveCache getArchiveCache() {
+        return archiveCache;
+    }
+
+    /**
+     * Gets the amount of archives in this snapshot.
+     * @return The amount of archives.
+     */
+    int getArchiveCount() {
+        return archiveCount;
+    }
+
+    /**
+     * Destroys this snapshot, freeing the memory of its archives and closing
+     * its files.
+     */
+    private void destroy() {
+        if(archiveArena != null)
+            archiveArena.destroy();
+        if(archivePack != null)
+            archivePack.destroy();
+        for(int i = 0; i < fileIndexes.length; i++) {
+            if(fileIndexes[i] != null)
+                fileIndexes[i].destroy();
+        }
+        archiveArena = null;
+        archiveCache = null;
+        archivePack = null;
+        fileIndexes = null;
+        LOGGER.log(Level.INFO, "Released a snapshot of {0} archives.", archiveCount);
+    }
+
+    /**
+     * Constructs a new {@link ArchiveSnapshot}; The snapshot starts with the single
+     * reference held by the server.
+     * @param fileIndexes The {@link FileIndex} array that the archives were loaded from.
+     * @param archiveArena The {@link ArchiveArena} of the preloaded archives, or null.
+     * @param archiveCache The {@link ArchiveCache} of the lazily loaded archives, or null.
+     * @param archivePack The {@link ArchivePack} to transfer the archives from, or null.
+     * @param archiveCount The amount of archives in the snapshot.
+     */
+    public ArchiveSnapshot(FileIndex[] fileIndexes, ArchiveArena archiveArena, ArchiveCache archiveCache, ArchivePack archivePack, int archiveCount) {
+        this.fileIndexes = fileIndexes;
+        this.archiveArena = archiveArena;
+        this.archiveCache = archiveCache;
+        this.archivePack = archivePack;
+        this.archiveCount = archiveCount;
+        references = new AtomicInteger(1);
+    }
+}
@@ -0,0 +1,101 @@
+package org.runetekk;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+/**
+ * ArchiveValidator.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class ArchiveValidator extends RecursiveAction {
+
+    /**
+     * The serial version unique id.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The maximum amount of archives that are validated by a single task
+     * without splitting it.
+     */
+    private static final int SPLIT_THRESHOLD = 256;
+
+    /**
+     * The {@link FileIndex} to validate the archives of.
+     */
+    private FileIndex fileIndex;
+
+    /**
+     * The results indexed by archive id, set for every valid archive.
+     */
+    private boolean[] valid;
+
+    /**
+     * The lengths of the valid archives indexed by archive id, or null if only
+     * the chunk chains are checked.
+     */
+    private int[] lengths;
+
+    /**
+     * The CRC32 of the valid archives indexed by archive id, or null if only
+     * the chunk chains are checked.
+     */
+    private int[] checksums;
+
+    /**
+     * The first archive validated by this task.
+     */
+    private int from;
+
+    /**
+     * The archive after the last one validated by this task.
+     */
+    private int to;
+
+    @Override
+    protected void compute() {
+        if(to - from > SPLIT_THRESHOLD) {
+            int middle = from + (to - from) / 2;
+            invokeAll(new ArchiveValidator(fileIndex, valid, lengths, checksums, from, middle), new ArchiveValidator(fileIndex, valid, lengths, checksums, middle, to));
+            return;
+        }
+        if(checksums == null) {
+            for(int i = from; i < to; i++)
+                valid[i] = fileIndex.isValid(i);
+            return;
+        }
+        CRC32 crc = new CRC32();
+        for(int i = from; i < to; i++) {
+            byte[] src = fileIndex.get(i);
+            if(src == null)
+                continue;
+            crc.reset();
+            crc.update(src, 0, src.length);
+            valid[i] = true;
+            lengths[i] = src.length;
+            checksums[i] = (int) crc.getValue();
+        }
+    }
+
+    /**
+     * Constructs a new {@link ArchiveValidator}; The task splits itself by
+     * archive range and checks the chunk chain of every archive in the range
+     * without copying its payload, unless the lengths and checksums of the 
+     * archives are wanted in which case every archive is parsed.
+     * @param fileIndex The {@link FileIndex} to validate the archives of.
+     * @param valid The results indexed by archive id.
+     * @param lengths The lengths of the valid archives indexed by archive id, or null.
+     * @param checksums The CRC32 of the valid archives indexed by archive id, or null.
+     * @param from The first archive to validate.
+     * @param to The archive after the last one to validate.
+     */
+    public ArchiveValidator(FileIndex fileIndex, boolean[] valid, int[] lengths, int[] checksums, int from, int to) {
+        this.fileIndex = fileIndex;
+        this.valid = valid;
+        this.lengths = lengths;
+        this.checksums = checksums;
+        this.from = from;
+        this.to = to;
+    }
+}
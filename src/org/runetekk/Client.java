@@ -1,9 +1,10 @@
 package org.runetekk;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Client.java
@@ -13,10 +14,74 @@ import java.net.Socket;
 public final class Client {
     
     /**
-     * The maximum queue size.
+     * The default maximum queue size.
      */
     public static final int QUEUE_SIZE = 20;
     
+    /**
+     * The largest maximum queue size that may be configured, which bounds the
+     * memory that is held for each client.
+     */
+    static final int MAXIMUM_QUEUE_SIZE = 4096;
+    
+    /**
+     * The size of a framed block, a header followed by a block.
+     */
+    static final int FRAMED_BLOCK_SIZE = Main.HEADER_SIZE + Main.BLOCK_SIZE;
+    
+    /**
+     * The priority class of the urgent requests.
+     */
+    static final int URGENT = 0;
+    
+    /**
+     * The priority class of the priority requests.
+     */
+    static final int PRIORITY = 1;
+    
+    /**
+     * The priority class of the passive requests.
+     */
+    static final int PASSIVE = 2;
+    
+    /**
+     * The maximum amount of requests each queue of a client holds.
+     */
+    static int queueSize = QUEUE_SIZE;
+    
+    /**
+     * The maximum amount of bytes of output that are buffered for a client. No more
+     * blocks are framed for a client once its buffer cannot hold another block.
+     */
+    static int highWaterMark;
+    
+    /**
+     * The amount of bytes of output a stalled client has to drain down to before
+     * blocks are framed for it again.
+     */
+    static int lowWaterMark;
+    
+    /**
+     * The amount of milliseconds a client may stay stalled before it is destroyed.
+     */
+    static long stallTimeout;
+    
+    /**
+     * The id of the next client, which tells the flight recorder events of the
+     * clients apart.
+     */
+    private static final AtomicLong nextId = new AtomicLong();
+    
+    /**
+     * The id of this client.
+     */
+    long id;
+    
+    /**
+     * The time in nanoseconds at which this client was accepted.
+     */
+    long acceptTime;
+    
     /**
      * The time at which this client should be removed and destroyed. If
      * the clientTimeout is less than zero then a clientTimeout is not currently set 
@@ -24,6 +89,29 @@ public final class Client {
      */
     long clientTimeout;
     
+    /**
+     * The {@link TimingWheel} of the serving thread that owns this client, or null
+     * if the client is served on a {@link ClientThread} of its own.
+     */
+    TimingWheel timingWheel;
+    
+    /**
+     * The slot of the {@link TimingWheel} that this client is in, or -1 if it
+     * has no timeout scheduled.
+     */
+    int timerSlot;
+    
+    /**
+     * The previous client in the slot of the {@link TimingWheel}.
+     */
+    Client timerPrevious;
+    
+    /**
+     * The next client in the slot of the {@link TimingWheel}, or in the list of
+     * the clients that timed out.
+     */
+    Client timerNext;
+    
     /**
      * The handshake for the client was handled to continue further communications.
      */
@@ -45,37 +133,497 @@ public final class Client {
     int[] passiveRequests;
     
     /**
-     * The {@link InputStream} of this client.
+     * The {@link RequestTable} of the archives that are queued or in flight for
+     * this client and the priority class they are queued in.
+     */
+    private RequestTable requestTable;
+    
+    /**
+     * The time in nanoseconds at which each queued request was queued, indexed by
+     * the priority class and the position of the request in its queue.
+     */
+    private long[] requestTimes;
+    
+    /**
+     * The {@link MetricsRecorder} of the serving thread that owns this client.
+     */
+    MetricsRecorder metrics;
+    
+    /**
+     * The non-blocking {@link SocketChannel} of this client.
+     */
+    SocketChannel channel;
+    
+    /**
+     * The {@link SelectionKey} of the channel of this client.
+     */
+    SelectionKey key;
+    
+    /**
+     * The buffer that incoming bytes are read into from the channel. It holds as
+     * many requests as the queues of this client together.
+     */
+    ByteBuffer readBuffer;
+    
+    /**
+     * The direct buffer that holds the framed blocks currently being written to the
+     * channel. A direct buffer is written to the socket without first being copied.
+     * Its capacity is the high water mark of the pending output. It is null while
+     * this client has neither requests nor output, so that the clients which idle
+     * or have not handshaken yet hold no direct memory.
+     */
+    ByteBuffer writeBuffer;
+    
+    /**
+     * The time at which this client stalled, or -1 if it is not stalled. A client
+     * stalls once its output cannot be written as fast as it is produced, that is
+     * once its buffer is full or a transfer from the pack file is left pending.
+     */
+    long stalledSince;
+    
+    /**
+     * The position in the pack file of the bytes currently being transferred
+     * to the channel.
+     */
+    long transferPosition;
+    
+    /**
+     * The amount of bytes left to transfer from the pack file to the channel.
+     */
+    int transferRemaining;
+    
+    /**
+     * The queue whose head request is removed once the pending transfer from the
+     * pack file completes, or null if the transfer does not finish a request.
+     */
+    int[] transferQueue;
+    
+    /**
+     * The priority classes whose rotation in the {@link Scheduler} this client is
+     * in, one bit per priority class.
+     */
+    int scheduledClasses;
+    
+    /**
+     * The {@link TokenBucket}s that limit the bytes sent to this client from each
+     * priority class, created once the class is first served. A class that is not
+     * limited has no bucket.
+     */
+    TokenBucket[] buckets;
+    
+    /**
+     * The {@link ArchiveSnapshot} that this client is currently served from, or null
+     * if it holds no reference to a snapshot.
+     */
+    private ArchiveSnapshot snapshot;
+    
+    /**
+     * Queues a request for this client. The request is placed in the urgent,
+     * priority or passive queue depending on the priority in the lowest byte of
+     * the hash. A request for an archive that is already queued or in flight is
+     * dropped, unless it raises the priority of an archive that is still waiting
+     * in a lower queue, in which case the archive is moved to the higher queue.
+     * @param hash The request hash.
+     * @param now The time in nanoseconds at which the request was read.
+     * @return If the request was queued or dropped, false if the queue was overfilled.
+     */
+    boolean queueRequest(int hash, long now) {
+        int priorityClass = (hash & 0xFFL) == 2 ? URGENT : 
+                            (hash & 0xFFL) == 1 ? PRIORITY 
+                                                : PASSIVE;
+        int queuedClass = requestTable.get(hash);
+        if(queuedClass != -1 && (queuedClass <= priorityClass || !removeRequest(getQueue(queuedClass), hash)))
+            return true;
+        int[] queue = getQueue(priorityClass);
+        int writePosition = queue[queue.length - 1];
+        int nextPosition = (writePosition + 1) % (queue.length - 3);
+        if(nextPosition == queue[queue.length - 2])
+            return false;
+        allocateWriteBuffer();
+        queue[writePosition] = hash;
+        queue[queue.length - 1] = nextPosition;
+        requestTable.put(hash, priorityClass);
+        requestTimes[priorityClass * (queue.length - 3) + writePosition] = now;
+        metrics.recordQueued(priorityClass, 1);
+        RequestEnqueueEvent event = new RequestEnqueueEvent();
+        if(event.isEnabled()) {
+            event.clientId = id;
+            event.indexId = hash >>> 24;
+            event.archiveId = (hash >> 8) & 0xFFFF;
+            event.priority = hash & 0xFF;
+            event.commit();
+        }
+        return true;
+    }
+    
+    /**
+     * Removes a request that is waiting in a queue, shifting the requests behind
+     * it forward. The request at the head of the queue cannot be removed once
+     * blocks of it were served.
+     * @param queue The queue to remove the request from.
+     * @param hash The request hash.
+     * @return If the request was removed, false if it is in flight or not queued.
+     */
+    private boolean removeRequest(int[] queue, int hash) {
+        int capacity = queue.length - 3;
+        int head = queue[queue.length - 2];
+        int tail = queue[queue.length - 1];
+        int priorityClass = getPriorityClass(queue);
+        int offset = priorityClass * capacity;
+        for(int position = head; position != tail; position = (position + 1) % capacity) {
+            if(queue[position] >>> 8 != hash >>> 8)
+                continue;
+            if(position == head && queue[queue.length - 3] != 0)
+                return false;
+            for(int next = (position + 1) % capacity; next != tail; next = (next + 1) % capacity) {
+                queue[position] = queue[next];
+                requestTimes[offset + position] = requestTimes[offset + next];
+                position = next;
+            }
+            queue[queue.length - 1] = position;
+            requestTable.remove(hash);
+            metrics.recordQueued(priorityClass, -1);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Removes the request at the head of a queue once its last block was served
+     * and resets the transfer state of the queue.
+     * @param queue The queue.
+     */
+    void popRequest(int[] queue) {
+        int priorityClass = getPriorityClass(queue);
+        long latency = System.nanoTime() - requestTimes[priorityClass * (queue.length - 3) + queue[queue.length - 2]];
+        metrics.recordCompletion(priorityClass, latency);
+        metrics.recordQueued(priorityClass, -1);
+        ArchiveCompletedEvent event = new ArchiveCompletedEvent();
+        if(event.isEnabled()) {
+            int hash = queue[queue[queue.length - 2]];
+            event.clientId = id;
+            event.indexId = hash >>> 24;
+            event.archiveId = (hash >> 8) & 0xFFFF;
+            event.priority = hash & 0xFF;
+            event.size = (queue[queue.length - 3] & 0xFFFF00) >> 8;
+            event.latency = latency;
+            event.commit();
+        }
+        requestTable.remove(queue[queue[queue.length - 2]]);
+        queue[queue.length - 2] = (queue[queue.length - 2] + 1) % (queue.length - 3);
+        queue[queue.length - 3] = 0;
+    }
+    
+    /**
+     * Removes the request whose last block was transferred from the pack file from
+     * its queue, once the transfer has completed.
      */
-    InputStream inputStream;
+    void finishTransfer() {
+        if(transferRemaining == 0 && transferQueue != null) {
+            popRequest(transferQueue);
+            transferQueue = null;
+        }
+    }
+    
+    /**
+     * Records the time the request at the head of a queue waited for its first
+     * block, once the block is framed.
+     * @param queue The queue.
+     */
+    void recordFirstBlock(int[] queue) {
+        int priorityClass = getPriorityClass(queue);
+        long queueTime = System.nanoTime() - requestTimes[priorityClass * (queue.length - 3) + queue[queue.length - 2]];
+        metrics.recordFirstBlock(priorityClass, queueTime);
+        FirstBlockEvent event = new FirstBlockEvent();
+        if(event.isEnabled()) {
+            int hash = queue[queue[queue.length - 2]];
+            event.clientId = id;
+            event.indexId = hash >>> 24;
+            event.archiveId = (hash >> 8) & 0xFFFF;
+            event.priority = hash & 0xFF;
+            event.queueTime = queueTime;
+            event.commit();
+        }
+    }
     
     /**
-     * The {@link OutputStream} of this client.
+     * Gets the queue that the next block should be served from. The urgent 
+     * requests are served before the priority requests which are served before 
+     * the passive requests.
+     * @return The queue or null if there are no requests queued.
      */
-    OutputStream outputStream;
+    int[] getNextQueue() {
+        if(urgentRequests[urgentRequests.length - 1] != urgentRequests[urgentRequests.length - 2])
+            return urgentRequests;
+        if(priorityRequests[priorityRequests.length - 1] != priorityRequests[priorityRequests.length - 2])
+            return priorityRequests;
+        if(passiveRequests[passiveRequests.length - 1] != passiveRequests[passiveRequests.length - 2])
+            return passiveRequests;
+        return null;
+    }
+    
+    /**
+     * Gets the queue of a priority class.
+     * @param priorityClass The priority class.
+     * @return The queue.
+     */
+    int[] getQueue(int priorityClass) {
+        return priorityClass == URGENT ? urgentRequests : 
+               priorityClass == PRIORITY ? priorityRequests 
+                                         : passiveRequests;
+    }
+    
+    /**
+     * Gets the priority class of a queue.
+     * @param queue The queue.
+     * @return The priority class.
+     */
+    private int getPriorityClass(int[] queue) {
+        return queue == urgentRequests ? URGENT : 
+               queue == priorityRequests ? PRIORITY 
+                                         : PASSIVE;
+    }
+    
+    /**
+     * Gets the amount of requests queued in a queue.
+     * @param queue The queue.
+     * @return The amount of requests.
+     */
+    private static int getQueuedCount(int[] queue) {
+        int capacity = queue.length - 3;
+        return (queue[queue.length - 1] - queue[queue.length - 2] + capacity) % capacity;
+    }
+    
+    /**
+     * Gets if this client has requests of a priority class queued.
+     * @param priorityClass The priority class.
+     * @return If there are requests queued, false if there are none or this client
+     *         was destroyed.
+     */
+    boolean hasRequests(int priorityClass) {
+        int[] queue = getQueue(priorityClass);
+        return queue != null && queue[queue.length - 1] != queue[queue.length - 2];
+    }
+    
+    /**
+     * Gets if this client was destroyed.
+     * @return If this client was destroyed.
+     */
+    boolean isDestroyed() {
+        return urgentRequests == null;
+    }
+    
+    /**
+     * Gets the {@link ArchiveSnapshot} that this client is served from. The client
+     * moves to the current snapshot only between requests, so that every block of
+     * a request is served from the same snapshot.
+     * @return The snapshot.
+     */
+    ArchiveSnapshot getSnapshot() {
+        if(snapshot == null)
+            snapshot = Main.acquireSnapshot();
+        else if(urgentRequests[urgentRequests.length - 3] == 0 && priorityRequests[priorityRequests.length - 3] == 0 && 
+                passiveRequests[passiveRequests.length - 3] == 0 && transferRemaining == 0 && !Main.isCurrentSnapshot(snapshot)) {
+            snapshot.release();
+            snapshot = Main.acquireSnapshot();
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Releases the {@link ArchiveSnapshot} that this client is served from, if any.
+     */
+    void releaseSnapshot() {
+        if(snapshot != null) {
+            snapshot.release();
+            snapshot = null;
+        }
+    }
+    
+    /**
+     * Allocates the buffer that holds the output of this client, if it has none.
+     */
+    private void allocateWriteBuffer() {
+        if(writeBuffer == null) {
+            writeBuffer = ByteBuffer.allocateDirect(highWaterMark);
+            writeBuffer.flip();
+        }
+    }
+    
+    /**
+     * Frees the buffer that holds the output of this client once all of the output
+     * is written, it is allocated again when the next request is queued.
+     */
+    void releaseWriteBuffer() {
+        if(writeBuffer != null && !writeBuffer.hasRemaining()) {
+            DirectBuffer.free(writeBuffer);
+            writeBuffer = null;
+        }
+    }
+    
+    /**
+     * Handles the handshake of this client, the reply is put into its output.
+     */
+    void completeHandshake() {
+        allocateWriteBuffer();
+        writeBuffer.clear();
+        writeBuffer.put(new byte[8]);
+        writeBuffer.flip();
+        handshakeHandled = true;
+        Main.handshakingClients.decrementAndGet();
+        ClientHandshakeEvent event = new ClientHandshakeEvent();
+        if(event.isEnabled()) {
+            event.clientId = id;
+            event.handshakeTime = System.nanoTime() - acceptTime;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Sets the time at which this client times out and is destroyed.
+     * @param deadline The time in milliseconds, or -1 to remove the timeout.
+     */
+    void setTimeout(long deadline) {
+        clientTimeout = deadline;
+        if(deadline < 0L)
+            timingWheel.cancel(this);
+        else
+            timingWheel.schedule(this, deadline);
+    }
+    
+    /**
+     * Writes as much of the pending output of this client as its channel takes
+     * and updates its stall state. The output is written from the buffer first
+     * and then transferred from the pack file. A client that stalls times out
+     * once it has stayed stalled for the stall timeout.
+     * @throws IOException An I/O error occurred while writing.
+     */
+    void flush() throws IOException {
+        if(writeBuffer.hasRemaining())
+            channel.write(writeBuffer);
+        if(!writeBuffer.hasRemaining() && transferRemaining > 0) {
+            getSnapshot().transfer(this);
+            finishTransfer();
+        }
+        if(stalledSince < 0L) {
+            if(transferRemaining > 0 || writeBuffer.capacity() - writeBuffer.remaining() < FRAMED_BLOCK_SIZE) {
+                stalledSince = System.currentTimeMillis();
+                Main.stalledClients.incrementAndGet();
+                setTimeout(stalledSince + stallTimeout);
+            }
+        } else if(transferRemaining == 0 && writeBuffer.remaining() <= lowWaterMark) {
+            stalledSince = -1L;
+            Main.stalledClients.decrementAndGet();
+            setTimeout(-1L);
+        }
+    }
+    
+    /**
+     * Gets if this client has output that is not written yet.
+     * @return If there is output pending.
+     */
+    boolean hasPendingOutput() {
+        return (writeBuffer != null && writeBuffer.hasRemaining()) || transferRemaining > 0;
+    }
+    
+    /**
+     * Gets if blocks can be framed for this client. No blocks are framed for a
+     * stalled client, and transfers from the pack file cannot be queued behind
+     * pending output.
+     * @return If blocks can be framed.
+     */
+    boolean canProduce() {
+        if(stalledSince >= 0L)
+            return false;
+        if(Main.isPacked())
+            return !hasPendingOutput();
+        return writeBuffer.capacity() - writeBuffer.remaining() >= FRAMED_BLOCK_SIZE;
+    }
+    
+    /**
+     * Gets if this client is stalled.
+     * @return If this client is stalled.
+     */
+    boolean isStalled() {
+        return stalledSince >= 0L;
+    }
     
     /**
      * Destroys this {@link Client}.
      */
     public void destroy() {
         try {
-            inputStream.close();
-            outputStream.close();
+            channel.close();
         } catch(IOException ioex) {}      
+        if(timingWheel != null)
+            timingWheel.cancel(this);
+        if(urgentRequests != null) {
+            ClientDestroyEvent event = new ClientDestroyEvent();
+            if(event.isEnabled()) {
+                event.clientId = id;
+                event.connectedTime = System.nanoTime() - acceptTime;
+                event.handshaken = handshakeHandled;
+                event.stalled = stalledSince >= 0L;
+                event.queuedRequests = getQueuedCount(urgentRequests) + getQueuedCount(priorityRequests) + getQueuedCount(passiveRequests);
+                event.commit();
+            }
+        }
+        if(stalledSince >= 0L) {
+            stalledSince = -1L;
+            Main.stalledClients.decrementAndGet();
+        }
+        if(urgentRequests != null) {
+            metrics.recordQueued(URGENT, -getQueuedCount(urgentRequests));
+            metrics.recordQueued(PRIORITY, -getQueuedCount(priorityRequests));
+            metrics.recordQueued(PASSIVE, -getQueuedCount(passiveRequests));
+            Main.connectedClients.decrementAndGet();
+            if(!handshakeHandled)
+                Main.handshakingClients.decrementAndGet();
+        }
         priorityRequests = null;
         urgentRequests = null;
         passiveRequests = null;
+        requestTable = null;
+        requestTimes = null;
+        transferQueue = null;
+        readBuffer = null;
+        if(writeBuffer != null)
+            DirectBuffer.free(writeBuffer);
+        writeBuffer = null;
+        key = null;
+        releaseSnapshot();
     }
     
     /**
      * Constructs a new {@link Client};
-     * @param socket The socket to create the client from.
-     */
-    public Client(Socket socket) throws IOException {
-        this.inputStream = socket.getInputStream();
-        this.outputStream = socket.getOutputStream();
-        priorityRequests = new int[QUEUE_SIZE + 3];
-        urgentRequests = new int[QUEUE_SIZE + 3];
-        passiveRequests = new int[QUEUE_SIZE + 3];
-    }  
+     * @param channel The non-blocking socket channel to create the client from.
+     * @param timingWheel The {@link TimingWheel} of the serving thread that owns the client, or null.
+     * @param metrics The {@link MetricsRecorder} of the serving thread that owns the client.
+     */
+    public Client(SocketChannel channel, TimingWheel timingWheel, MetricsRecorder metrics) {
+        this.channel = channel;
+        this.timingWheel = timingWheel;
+        this.metrics = metrics;
+        timerSlot = -1;
+        priorityRequests = new int[queueSize + 4];
+        urgentRequests = new int[queueSize + 4];
+        passiveRequests = new int[queueSize + 4];
+        requestTable = new RequestTable(3 * queueSize);
+        requestTimes = new long[3 * (queueSize + 1)];
+        buckets = new TokenBucket[Scheduler.CLASS_COUNT];
+        readBuffer = ByteBuffer.allocate(3 * queueSize * Main.REQUEST_SIZE);
+        stalledSince = -1L;
+        Main.connectedClients.incrementAndGet();
+        Main.handshakingClients.incrementAndGet();
+        id = nextId.incrementAndGet();
+        acceptTime = System.nanoTime();
+        ClientAcceptEvent event = new ClientAcceptEvent();
+        if(event.isEnabled()) {
+            event.clientId = id;
+            try {
+                event.remoteAddress = channel == null ? null : String.valueOf(channel.getRemoteAddress());
+            } catch(IOException ioex) {}
+            event.commit();
+        }
+    }
 }
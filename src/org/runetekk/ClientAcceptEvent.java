@@ -0,0 +1,33 @@
+package org.runetekk;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * ClientAcceptEvent.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+@Name("org.runetekk.ClientAccept")
+@Label("Client Accept")
+@Description("A client was accepted and handed to a serving thread")
+@Category("Ondemand")
+@StackTrace(false)
+public final class ClientAcceptEvent extends Event {
+
+    /**
+     * The id of the client.
+     */
+    @Label("Client Id")
+    long clientId;
+
+    /**
+     * The remote address of the client.
+     */
+    @Label("Remote Address")
+    String remoteAddress;
+}
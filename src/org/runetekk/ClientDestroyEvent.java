@@ -0,0 +1,53 @@
+package org.runetekk;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * ClientDestroyEvent.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+@Name("org.runetekk.ClientDestroy")
+@Label("Client Destroy")
+@Description("A client was disconnected and destroyed")
+@Category("Ondemand")
+@StackTrace(false)
+public final class ClientDestroyEvent extends Event {
+
+    /**
+     * The id of the client.
+     */
+    @Label("Client Id")
+    long clientId;
+
+    /**
+     * The amount of nanoseconds the client was connected for.
+     */
+    @Label("Connected Time")
+    @Timespan
+    long connectedTime;
+
+    /**
+     * If the handshake of the client was handled.
+     */
+    @Label("Handshaken")
+    boolean handshaken;
+
+    /**
+     * If the client was stalled when it was destroyed.
+     */
+    @Label("Stalled")
+    boolean stalled;
+
+    /**
+     * The amount of requests the client still had queued.
+     */
+    @Label("Queued Requests")
+    int queuedRequests;
+}
@@ -0,0 +1,35 @@
+package org.runetekk;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * ClientHandshakeEvent.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+@Name("org.runetekk.ClientHandshake")
+@Label("Client Handshake")
+@Description("The handshake of a client was handled")
+@Category("Ondemand")
+@StackTrace(false)
+public final class ClientHandshakeEvent extends Event {
+
+    /**
+     * The id of the client.
+     */
+    @Label("Client Id")
+    long clientId;
+
+    /**
+     * The amount of nanoseconds between the accept and the handshake of the client.
+     */
+    @Label("Handshake Time")
+    @Timespan
+    long handshakeTime;
+}
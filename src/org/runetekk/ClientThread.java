@@ -0,0 +1,233 @@
+package org.runetekk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ClientThread.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class ClientThread implements Runnable {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ClientThread.class.getName());
+
+    /**
+     * The amount of milliseconds a client may idle or wait for its handshake
+     * before it is destroyed.
+     */
+    private static final int CLIENT_TIMEOUT = 5000;
+
+    /**
+     * The {@link ThreadServer} that accepted the client.
+     */
+    private ThreadServer server;
+
+    /**
+     * The blocking {@link SocketChannel} of the client.
+     */
+    private SocketChannel channel;
+
+    /**
+     * The stream that the requests are read from, it blocks for at most the
+     * client timeout.
+     */
+    private InputStream inputStream;
+
+    /**
+     * The {@link Client} that holds the requests and the output of the client.
+     */
+    private Client client;
+
+    /**
+     * The {@link Scheduler} that decides which priority class of the client is
+     * served next.
+     */
+    private Scheduler scheduler;
+
+    /**
+     * The {@link MetricsRecorder} that the client records into, which is shared with
+     * other clients and takes its lock only for each record.
+     */
+    private MetricsRecorder metrics;
+
+    /**
+     * The time at which the current write started, or -1 if the client is not
+     * being written to.
+     */
+    private volatile long writeStarted;
+
+    @Override
+    public void run() {
+        try {
+            serve();
+        } catch(SocketTimeoutException ex) {
+            LOGGER.log(Level.FINE, "Client disconnected : Timeout!");
+        } catch(ClosedChannelException ex) {
+            LOGGER.log(Level.FINE, "Client disconnected : Closed!");
+        } catch(IOException ioex) {
+            LOGGER.log(Level.WARNING, "Error - ", ioex);
+        } finally {
+            client.destroy();
+            server.remove(this);
+        }
+    }
+
+    /**
+     * Handles the handshake of the client and then serves its requests until it
+     * disconnects. The thread blocks on reads only while the client has no
+     * requests left and on writes while the socket is full, which holds up no
+     * other client.
+     * @throws IOException An I/O error occurred or the client timed out.
+     */
+    private void serve() throws IOException {
+        channel.socket().setSoTimeout(CLIENT_TIMEOUT);
+        int opcode = inputStream.read();
+        if(opcode < 0) {
+            LOGGER.log(Level.FINE, "Client disconnected : EOF!");
+            return;
+        }
+        if(opcode != 15) {
+            LOGGER.log(Level.WARNING, "Client disconnected : Invalid OP!");
+            return;
+        }
+        client.completeHandshake();
+        write();
+        int maximumBlocks = Main.writeBudget / Client.FRAMED_BLOCK_SIZE;
+        for(;;) {
+            if(!read())
+                return;
+            long now = System.nanoTime();
+            scheduler.add(client);
+            int priorityClass = scheduler.nextClass(now);
+            if(priorityClass == -1) {
+                long delay = scheduler.getDelay(now);
+                if(delay > 0L) {
+                    try {
+                        Thread.sleep(delay / 1000000L, (int) (delay % 1000000L));
+                    } catch(InterruptedException ex) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            scheduler.poll(priorityClass);
+            int limit = scheduler.allow(client, priorityClass, maximumBlocks, now);
+            if(limit == 0)
+                continue;
+            int[] queue = client.getQueue(priorityClass);
+            int blocks;
+            client.writeBuffer.clear();
+            if(Main.isPacked())
+                blocks = client.getSnapshot().frameTransfer(queue, client, limit * Client.FRAMED_BLOCK_SIZE);
+            else
+                blocks = Main.frameBlocks(client, queue, client.writeBuffer, limit);
+            client.writeBuffer.flip();
+            if(blocks < 0) {
+                scheduler.charge(client, priorityClass, 0, 0);
+                LOGGER.log(Level.WARNING, "Client disconnected : Archive unavailable!");
+                return;
+            }
+            scheduler.charge(client, priorityClass, blocks, client.writeBuffer.remaining() + client.transferRemaining);
+            metrics.recordServed(priorityClass, blocks, client.writeBuffer.remaining() + client.transferRemaining);
+            write();
+        }
+    }
+
+    /**
+     * Reads the incoming requests of the client. The read blocks until a request
+     * arrives if the client has no requests left, otherwise only the bytes that
+     * already arrived are read.
+     * @return If the client is still connected.
+     * @throws IOException An I/O error occurred or the client timed out.
+     */
+    private boolean read() throws IOException {
+        int length = client.readBuffer.remaining();
+        if(client.getNextQueue() != null) {
+            length = Math.min(length, inputStream.available());
+            if(length == 0)
+                return true;
+        } else {
+            client.releaseSnapshot();
+            client.releaseWriteBuffer();
+        }
+        int read = inputStream.read(client.readBuffer.array(), client.readBuffer.position(), length);
+        if(read < 0) {
+            LOGGER.log(Level.FINE, "Client disconnected : EOF!");
+            return false;
+        }
+        client.readBuffer.position(client.readBuffer.position() + read);
+        client.readBuffer.flip();
+        long now = System.nanoTime();
+        while(client.readBuffer.remaining() >= Main.REQUEST_SIZE) {
+            if(!client.queueRequest(client.readBuffer.getInt(), now)) {
+                LOGGER.log(Level.WARNING, "Client disconnected : Queue overfill!");
+                return false;
+            }
+        }
+        client.readBuffer.compact();
+        return true;
+    }
+
+    /**
+     * Writes the pending output of the client, blocking until all of it is written.
+     * @throws IOException An I/O error occurred while writing or a transfer from the
+     *                     pack file made no progress.
+     */
+    private void write() throws IOException {
+        writeStarted = System.currentTimeMillis();
+        while(client.writeBuffer.hasRemaining())
+            channel.write(client.writeBuffer);
+        while(client.transferRemaining > 0) {
+            if(client.getSnapshot().transfer(client) == 0)
+                throw new IOException("Transfer from the pack file made no progress");
+        }
+        client.finishTransfer();
+        writeStarted = -1L;
+    }
+
+    /**
+     * Gets if the current write has not finished for longer than the stall timeout.
+     * @param currentTime The current time in milliseconds.
+     * @return If the client should be closed.
+     */
+    boolean isStalled(long currentTime) {
+        long started = writeStarted;
+        return started >= 0L && currentTime - started > Client.stallTimeout;
+    }
+
+    /**
+     * Closes the channel of the client, which ends any blocking read or write and
+     * with it the thread of the client.
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch(IOException ioex) {}
+    }
+
+    /**
+     * Constructs a new {@link ClientThread};
+     * @param server The {@link ThreadServer} that accepted the client.
+     * @param channel The blocking socket channel of the client.
+     * @param metrics The {@link MetricsRecorder} that the client records into.
+     * @throws IOException An I/O error occurred while opening the stream of the channel.
+     */
+    public ClientThread(ThreadServer server, SocketChannel channel, MetricsRecorder metrics) throws IOException {
+        this.server = server;
+        this.channel = channel;
+        this.metrics = metrics;
+        inputStream = channel.socket().getInputStream();
+        client = new Client(channel, null, metrics);
+        scheduler = new Scheduler();
+        writeStarted = -1L;
+    }
+}
@@ -1,5 +1,7 @@
 package org.runetekk;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 
 /**
@@ -9,6 +11,17 @@ import java.nio.ByteBuffer;
  */
 public final class DirectBuffer {
     
+    /**
+     * The unsafe instance that direct buffers are freed with, or null if direct
+     * buffers can only be freed by the garbage collector.
+     */
+    private static Object unsafe;
+    
+    /**
+     * The method that frees the memory of a direct buffer.
+     */
+    private static Method invokeCleaner;
+    
     /**
      * The buffer to map to the memory.
      */
@@ -25,29 +38,62 @@ public final class DirectBuffer {
     } 
     
     /**
-     * Gets bytes from the buffer.
+     * Gets bytes from the buffer. The bytes are read with absolute reads so the 
+     * buffer can be read from multiple threads once it has been put.
      * @param pos The position of the bytes to get.
      * @param len The amount of bytes to get.
      * @return The bytes.
      */
     public byte[] get(int pos, int len) {
 	byte[] is = new byte[len];
-	buffer.position(pos);
-	buffer.get(is, 0, len);
+	buffer.get(pos, is, 0, len);
 	return is;
     }
     
+    /**
+     * Gets bytes from the buffer and puts them into another buffer.
+     * @param pos The position of the bytes to get.
+     * @param len The amount of bytes to get.
+     * @param dst The buffer to put the bytes into.
+     */
+    public void get(int pos, int len, ByteBuffer dst) {
+        dst.put(dst.position(), buffer, pos, len);
+        dst.position(dst.position() + len);
+    }
+    
     /**
      * Gets the payload of the buffer.
      * @return The payload.
      */
     public byte[] getPayload() {
         byte[] payload = new byte[buffer.capacity()];
-        buffer.position(0);
-        buffer.get(payload);
+        buffer.get(0, payload);
         return payload;
     }
     
+    /**
+     * Frees the memory of a direct buffer without waiting for the garbage collector.
+     * The buffer must not be used once it is freed. Does nothing if the memory can 
+     * not be freed explicitly, the garbage collector frees it once it is unreachable.
+     * @param buffer The direct buffer to free.
+     */
+    static void free(ByteBuffer buffer) {
+        if(invokeCleaner == null || !buffer.isDirect())
+            return;
+        try {
+            invokeCleaner.invoke(unsafe, buffer);
+        } catch(Exception ex) {}
+    }
+    
+    /**
+     * Frees the memory of the {@link ByteBuffer}, the buffer must not be used once
+     * it is destroyed.
+     */
+    public void destroy() {
+        free(buffer);
+        buffer = null;
+    }
+    
     /**
      * Gets the capacity of the {@link ByteBuffer}.
      * @return The capacity.
@@ -55,4 +101,17 @@ public final class DirectBuffer {
     public int getCapacity() {
         return buffer.capacity();
     }
+    
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch(Exception ex) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+    }
 }
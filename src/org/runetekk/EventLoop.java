@@ -0,0 +1,379 @@
+package org.runetekk;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * EventLoop.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class EventLoop implements Runnable {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(EventLoop.class.getName());
+
+    /**
+     * The amount of milliseconds a client may idle or wait for its handshake
+     * before it is destroyed.
+     */
+    private static final long CLIENT_TIMEOUT = 5000L;
+
+    /**
+     * The id of this event loop.
+     */
+    private int id;
+
+    /**
+     * The local thread.
+     */
+    private Thread thread;
+
+    /**
+     * The local thread is currently paused.
+     */
+    private boolean isPaused;
+
+    /**
+     * The {@link Selector} that the channels of the clients owned by this
+     * event loop are registered with.
+     */
+    private Selector selector;
+
+    /**
+     * The channels that were handed to this event loop and still have to be
+     * registered with its selector.
+     */
+    private Queue<SocketChannel> pendingChannels;
+
+    /**
+     * The amount of clients owned by this event loop, including the ones that
+     * are still pending registration.
+     */
+    private AtomicInteger clientCount;
+
+    /**
+     * The {@link TimingWheel} that holds the handshake, idle and stall timeouts
+     * of the clients owned by this event loop.
+     */
+    private TimingWheel timingWheel;
+
+    /**
+     * The amount of handshakes handled in the current cycle.
+     */
+    private int handshakes;
+
+    /**
+     * The {@link Scheduler} that decides which client is served next.
+     */
+    private Scheduler scheduler;
+
+    /**
+     * The {@link MetricsRecorder} that the clients owned by this event loop record into.
+     */
+    private MetricsRecorder metricsRecorder;
+
+    /**
+     * The handler that the selected keys are passed to. The selected keys are
+     * handled as they are selected instead of being collected into the selected
+     * key set, which would allocate for every ready channel.
+     */
+    private Consumer<SelectionKey> keyHandler;
+
+    @Override
+    public void run() {
+        for(;;) {
+            synchronized(this) {
+                if(isPaused)
+                    break;
+            }
+            handshakes = 0;
+            long delay = scheduler.getDelay(System.nanoTime());
+            try {
+                if(delay == 0L)
+                    selector.selectNow(keyHandler);
+                else
+                    selector.select(keyHandler, delay < 0L ? TimingWheel.TICK_DURATION : Math.min(TimingWheel.TICK_DURATION, Math.max(1L, delay / 1000000L)));
+            } catch(IOException ioex) {
+                LOGGER.log(Level.SEVERE, "Exception thrown while selecting - ", ioex);
+                break;
+            }
+            SocketChannel channel;
+            while((channel = pendingChannels.poll()) != null)
+                register(channel);
+            serve();
+            long currentTime = System.currentTimeMillis();
+            Client client;
+            while((client = timingWheel.poll(currentTime)) != null) {
+                if(client.isStalled())
+                    LOGGER.log(Level.WARNING, "Client disconnected : Stalled!");
+                else
+                    LOGGER.log(Level.FINE, "Client disconnected : Timeout!");
+                destroy(client.key, client);
+            }
+        }
+        for(SelectionKey key : selector.keys()) {
+            if(key.isValid())
+                destroy(key, (Client) key.attachment());
+        }
+        SocketChannel channel;
+        while((channel = pendingChannels.poll()) != null) {
+            try {
+                channel.close();
+            } catch(IOException ioex) {}
+        }
+        try {
+            selector.close();
+        } catch(IOException ioex) {}
+    }
+
+    /**
+     * Handles a selected key.
+     * @param key The selected key.
+     */
+    private void handle(SelectionKey key) {
+        if(!key.isValid())
+            return;
+        Client client = (Client) key.attachment();
+        /* Handshakes over the limit stay ready and are handled in the next cycle. */
+        if(!client.handshakeHandled && handshakes++ >= Main.handshakeLimit)
+            return;
+        try {
+            if(key.isReadable())
+                read(key, client);
+            if(key.isValid() && key.isWritable())
+                flush(key, client);
+        } catch(IOException ioex) {
+            LOGGER.log(Level.WARNING, "Error - ", ioex);
+            destroy(key, client);
+        }
+    }
+
+    /**
+     * Hands a newly accepted channel to this event loop. The channel is
+     * registered by the local thread the next time it wakes up.
+     * @param channel The accepted channel.
+     */
+    void handOff(SocketChannel channel) {
+        clientCount.incrementAndGet();
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Gets the amount of clients owned by this event loop.
+     * @return The amount of clients.
+     */
+    int getClientCount() {
+        return clientCount.get();
+    }
+
+    /**
+     * Registers a channel that was handed to this event loop as a new {@link Client}.
+     * @param channel The channel to register.
+     */
+    private void register(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Client client = new Client(channel, timingWheel, metricsRecorder);
+            client.key = key;
+            key.attach(client);
+            client.setTimeout(System.currentTimeMillis() + CLIENT_TIMEOUT);
+        } catch(IOException ioex) {
+            LOGGER.log(Level.WARNING, "Exception thrown while registering a client - ", ioex);
+            clientCount.decrementAndGet();
+            try {
+                channel.close();
+            } catch(IOException ex) {}
+        }
+    }
+
+    /**
+     * Reads the incoming bytes of a client and handles its handshake and requests.
+     * @param key The selection key of the client.
+     * @param client The client to read from.
+     * @throws IOException An I/O error occurred while reading.
+     */
+    private void read(SelectionKey key, Client client) throws IOException {
+        if(client.channel.read(client.readBuffer) < 0) {
+            LOGGER.log(Level.FINE, "Client disconnected : EOF!");
+            destroy(key, client);
+            return;
+        }
+        client.readBuffer.flip();
+        if(!client.handshakeHandled && client.readBuffer.hasRemaining()) {
+            if(client.readBuffer.get() == 15) {
+                client.completeHandshake();
+                client.setTimeout(-1L);
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                LOGGER.log(Level.WARNING, "Client disconnected : Invalid OP!");
+                destroy(key, client);
+                return;
+            }
+        }
+        if(client.handshakeHandled) {
+            boolean queued = false;
+            long now = System.nanoTime();
+            while(client.readBuffer.remaining() >= Main.REQUEST_SIZE) {
+                if(!client.queueRequest(client.readBuffer.getInt(), now)) {
+                    LOGGER.log(Level.WARNING, "Client disconnected : Queue overfill!");
+                    destroy(key, client);
+                    return;
+                }
+                queued = true;
+            }
+            if(queued) {
+                if(!client.isStalled())
+                    client.setTimeout(-1L);
+                scheduler.add(client);
+            }
+        }
+        client.readBuffer.compact();
+    }
+
+    /**
+     * Writes the pending output of a client. The client is added back to the
+     * rotation of the {@link Scheduler} as long as blocks can be framed for it,
+     * or starts to idle once it has no requests and no output left.
+     * @param key The selection key of the client.
+     * @param client The client to write to.
+     * @throws IOException An I/O error occurred while writing.
+     */
+    private void flush(SelectionKey key, Client client) throws IOException {
+        client.flush();
+        key.interestOps(client.hasPendingOutput() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        if(client.getNextQueue() != null) {
+            if(client.canProduce())
+                scheduler.add(client);
+            return;
+        }
+        if(!client.hasPendingOutput()) {
+            client.releaseSnapshot();
+            client.releaseWriteBuffer();
+            if(client.clientTimeout < 0L)
+                client.setTimeout(System.currentTimeMillis() + CLIENT_TIMEOUT);
+        }
+    }
+
+    /**
+     * Serves the clients in the rotation of the {@link Scheduler} until either the
+     * cycle budget is spent or no client can take another block. Each client that
+     * is served gets at most the write budget, which is framed behind its pending
+     * output or pointed at in the pack file, and written at once. A client that
+     * cannot take more blocks is left out of the rotation until its output drains,
+     * a client that is throttled is left to the {@link Scheduler} to defer.
+     */
+    private void serve() {
+        int maximumBlocks = Main.writeBudget / Client.FRAMED_BLOCK_SIZE;
+        long now = System.nanoTime();
+        for(int served = 0; served < Scheduler.cycleBudget;) {
+            int priorityClass = scheduler.nextClass(now);
+            if(priorityClass == -1)
+                break;
+            Client client = scheduler.poll(priorityClass);
+            if(!client.hasRequests(priorityClass) || !client.canProduce())
+                continue;
+            int limit = scheduler.allow(client, priorityClass, Math.min(Scheduler.cycleBudget - served, maximumBlocks), now);
+            if(limit == 0)
+                continue;
+            int[] queue = client.getQueue(priorityClass);
+            int pending = client.writeBuffer.remaining();
+            int blocks;
+            client.writeBuffer.compact();
+            if(Main.isPacked())
+                blocks = client.getSnapshot().frameTransfer(queue, client, limit * Client.FRAMED_BLOCK_SIZE);
+            else
+                blocks = Main.frameBlocks(client, queue, client.writeBuffer, limit);
+            client.writeBuffer.flip();
+            if(blocks < 0) {
+                scheduler.charge(client, priorityClass, 0, 0);
+                LOGGER.log(Level.WARNING, "Client disconnected : Archive unavailable!");
+                destroy(client.key, client);
+                continue;
+            }
+            scheduler.charge(client, priorityClass, blocks, client.writeBuffer.remaining() - pending + client.transferRemaining);
+            metricsRecorder.recordServed(priorityClass, blocks, client.writeBuffer.remaining() - pending + client.transferRemaining);
+            served += blocks;
+            try {
+                flush(client.key, client);
+            } catch(IOException ioex) {
+                LOGGER.log(Level.WARNING, "Error - ", ioex);
+                destroy(client.key, client);
+            }
+        }
+    }
+
+    /**
+     * Destroys a client and cancels its selection key.
+     * @param key The selection key of the client.
+     * @param client The client to destroy.
+     */
+    private void destroy(SelectionKey key, Client client) {
+        key.cancel();
+        client.destroy();
+        clientCount.decrementAndGet();
+    }
+
+    /**
+     * Initializes the local thread.
+     */
+    void initialize() {
+        thread = new Thread(this, "EventLoop-" + id);
+        thread.start();
+    }
+
+    /**
+     * Destroys this event loop and all the clients it owns.
+     */
+    void destroy() {
+        if(!isPaused)  {
+            if(thread != null) {
+                synchronized(this) {
+                    isPaused = true;
+                    notifyAll();
+                }
+                selector.wakeup();
+                try {
+                    thread.join();
+                } catch(InterruptedException ex) {
+                }
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Constructs a new {@link EventLoop};
+     * @param id The id of the event loop.
+     * @throws IOException An I/O error occurred while opening the selector.
+     */
+    EventLoop(int id) throws IOException {
+        this.id = id;
+        selector = Selector.open();
+        pendingChannels = new ConcurrentLinkedQueue<SocketChannel>();
+        clientCount = new AtomicInteger();
+        scheduler = new Scheduler();
+        timingWheel = new TimingWheel(TimingWheel.TICK_DURATION, TimingWheel.WHEEL_SIZE, System.currentTimeMillis());
+        metricsRecorder = Main.metrics.createRecorder(false);
+        keyHandler = new Consumer<SelectionKey>() {
+            @Override
+            public void accept(SelectionKey key) {
+                handle(key);
+            }
+        };
+    }
+}
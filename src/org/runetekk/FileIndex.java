@@ -2,13 +2,15 @@ package org.runetekk;
 
 import java.io.RandomAccessFile;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * FileIndex.java
  * @version 1.0.0
  * @author RuneTekk Development (SiniSoul)
  */
-public final class FileIndex {
+public class FileIndex {
     
     /**
      * The index id for this {@link FileIndex}.
@@ -32,22 +34,40 @@ public final class FileIndex {
      */
     private byte[] chunkBuffer;
     
+    /**
+     * Reads bytes from a file at a position without moving its file pointer.
+     * @param file The file to read from.
+     * @param position The position of the bytes in the file.
+     * @param buffer The buffer to read the bytes into.
+     * @param len The amount of bytes to read.
+     * @return If all the bytes were read, false if the end of the file was reached.
+     * @throws IOException An I/O error occurred while reading.
+     */
+    private static boolean read(RandomAccessFile file, long position, ByteBuffer buffer, int len) throws IOException {
+        FileChannel channel = file.getChannel();
+        buffer.clear();
+        buffer.limit(len);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) == -1)
+                return false;
+        }
+        return true;
+    }
+    
     /**
      * Creates a new source byte array for an archive parsed from this 
      * {@link FileIndex}. If an {@link IOExceptioN} is thrown while parsing the
-     * archive then the method will return null. 
+     * archive then the method will return null. Archives are parsed with 
+     * positional reads so multiple threads may parse archives at once.
      * @param id The archive id.
      * @return The created source byte array.
      */
     public byte[] get(int id) {
         try {
-            indexFile.seek(6L * id);
-            int read;
-            for(int i = 0; i < 6; i += read) {
-                read = indexFile.read(chunkBuffer, i, 6 - i);
-                if(read == -1)
-                    return null;
-            }
+            ByteBuffer buffer = ByteBuffer.allocate(520);
+            byte[] chunkBuffer = buffer.array();
+            if(!read(indexFile, 6L * id, buffer, 6))
+                return null;
             int size = ((chunkBuffer[0] & 0xff) << 16) + ((chunkBuffer[1] & 0xff) << 8) + (chunkBuffer[2] & 0xff);
             int block = ((chunkBuffer[3] & 0xff) << 16) + ((chunkBuffer[4] & 0xff) << 8) + (chunkBuffer[5] & 0xff);
             if(size < 0)
@@ -59,17 +79,11 @@ public final class FileIndex {
             for(int chunk = 0; archiveOffset < size; chunk++) {
                 if(block == 0)
                     return null;
-                mainFile.seek(520L * block);
-                int off = 0;
                 int blockSize = size - archiveOffset;
                 if(blockSize > 512)
                     blockSize = 512;
-                read = 0;
-                for(; off < blockSize + 8; off += read)  {
-                    read = mainFile.read(chunkBuffer, off, (blockSize + 8) - off);
-                    if(read == -1)
-                        return null;
-                }
+                if(!read(mainFile, 520L * block, buffer, blockSize + 8))
+                    return null;
                 int expectedArchive = ((chunkBuffer[0] & 0xff) << 8) + (chunkBuffer[1] & 0xff);
                 int expectedChunk = ((chunkBuffer[2] & 0xff) << 8) + (chunkBuffer[3] & 0xff);
                 int nextBlock = ((chunkBuffer[4] & 0xff) << 16) + ((chunkBuffer[5] & 0xff) << 8) + (chunkBuffer[6] & 0xff);
@@ -78,8 +92,8 @@ public final class FileIndex {
                     return null;
                 if(nextBlock < 0 || (long)nextBlock > mainFile.length() / 520L)
                     return null;
-                for(int i = 0; i < blockSize; i++)
-                    src[archiveOffset++] = chunkBuffer[i + 8];
+                System.arraycopy(chunkBuffer, 8, src, archiveOffset, blockSize);
+                archiveOffset += blockSize;
                 block = nextBlock;
             }
             return src;
@@ -88,6 +102,68 @@ public final class FileIndex {
         }
     }
     
+    /**
+     * Checks if an archive can be parsed from this {@link FileIndex} without
+     * parsing it. Only the index entry and the header of each chunk are read,
+     * the same checks are made as when the archive is parsed.
+     * @param id The archive id.
+     * @return If {@link #get(int)} would return the archive.
+     */
+    public boolean isValid(int id) {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            byte[] chunkBuffer = buffer.array();
+            if(!read(indexFile, 6L * id, buffer, 6))
+                return false;
+            int size = ((chunkBuffer[0] & 0xff) << 16) + ((chunkBuffer[1] & 0xff) << 8) + (chunkBuffer[2] & 0xff);
+            int block = ((chunkBuffer[3] & 0xff) << 16) + ((chunkBuffer[4] & 0xff) << 8) + (chunkBuffer[5] & 0xff);
+            long mainLength = mainFile.length();
+            if(block <= 0 || (long)block > mainLength / 520L)
+                return false;
+            int archiveOffset = 0;
+            for(int chunk = 0; archiveOffset < size; chunk++) {
+                if(block == 0)
+                    return false;
+                int blockSize = size - archiveOffset;
+                if(blockSize > 512)
+                    blockSize = 512;
+                if(520L * block + 8L + blockSize > mainLength || !read(mainFile, 520L * block, buffer, 8))
+                    return false;
+                int expectedArchive = ((chunkBuffer[0] & 0xff) << 8) + (chunkBuffer[1] & 0xff);
+                int expectedChunk = ((chunkBuffer[2] & 0xff) << 8) + (chunkBuffer[3] & 0xff);
+                int nextBlock = ((chunkBuffer[4] & 0xff) << 16) + ((chunkBuffer[5] & 0xff) << 8) + (chunkBuffer[6] & 0xff);
+                if(expectedArchive != id || expectedChunk != chunk)
+                    return false;
+                if((long)nextBlock > mainLength / 520L)
+                    return false;
+                archiveOffset += blockSize;
+                block = nextBlock;
+            }
+            return true;
+        } catch(IOException ioex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Gets the length of an archive from its entry in the index file without
+     * parsing the archive itself. The entry is read with a positional read so
+     * that lengths can be read while archives are parsed or written.
+     * @param id The archive id.
+     * @return The length or -1 if the archive has no entry.
+     */
+    public int getLength(int id) {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(3);
+            byte[] chunkBuffer = buffer.array();
+            if(!read(indexFile, 6L * id, buffer, 3))
+                return -1;
+            return ((chunkBuffer[0] & 0xff) << 16) + ((chunkBuffer[1] & 0xff) << 8) + (chunkBuffer[2] & 0xff);
+        } catch(IOException ioex) {
+            return -1;
+        }
+    }
+    
     public synchronized boolean put(byte src[], int id, int len) {
         boolean successful = put(src, id, len, true);
         if(!successful)
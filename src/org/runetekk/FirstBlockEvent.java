@@ -0,0 +1,66 @@
+package org.runetekk;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * FirstBlockEvent.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+@Name("org.runetekk.FirstBlock")
+@Label("First Block")
+@Description("The first block of a request was framed, emitted only if the request waited at least the latency threshold")
+@Category("Ondemand")
+@StackTrace(false)
+public final class FirstBlockEvent extends Event {
+
+    /**
+     * The id of the client.
+     */
+    @Label("Client Id")
+    long clientId;
+
+    /**
+     * The id of the index of the requested archive.
+     */
+    @Label("Index Id")
+    int indexId;
+
+    /**
+     * The id of the requested archive.
+     */
+    @Label("Archive Id")
+    int archiveId;
+
+    /**
+     * The priority of the request, 2 for urgent, 1 for priority and 0 for passive.
+     */
+    @Label("Priority")
+    int priority;
+
+    /**
+     * The amount of nanoseconds the request waited for its first block.
+     */
+    @Label("Queue Time")
+    @Timespan
+    long queueTime;
+
+    /**
+     * Gets if the request waited at least the latency threshold.
+     * @param threshold The {@link LatencyThreshold}.
+     * @return If the event should be committed.
+     */
+    @Name("latencyThreshold")
+    @Label("Latency Threshold")
+    @SettingDefinition
+    protected boolean latencyThreshold(LatencyThreshold threshold) {
+        return queueTime >= threshold.getNanos();
+    }
+}
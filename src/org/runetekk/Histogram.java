@@ -0,0 +1,176 @@
+package org.runetekk;
+
+/**
+ * Histogram.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class Histogram {
+
+    /**
+     * The amount of bits of each value that are kept, every bucket covers at
+     * most 1 / 2^(SUB_BUCKET_BITS - 1) of its values.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * The amount of buckets each power of two is split into.
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+
+    /**
+     * The amount of recorded values in each bucket. Values below 2^SUB_BUCKET_BITS
+     * have a bucket of their own, larger values share a bucket with the values that
+     * have the same highest SUB_BUCKET_BITS bits.
+     */
+    private long[] counts;
+
+    /**
+     * The amount of recorded values.
+     */
+    private long count;
+
+    /**
+     * The sum of the recorded values.
+     */
+    private long sum;
+
+    /**
+     * The largest recorded value.
+     */
+    private long maximum;
+
+    /**
+     * Gets the bucket of a value.
+     * @param value The value.
+     * @return The bucket.
+     */
+    private static int getBucket(long value) {
+        if(value < (1L << SUB_BUCKET_BITS))
+            return (int) value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * Gets the largest value of a bucket.
+     * @param bucket The bucket.
+     * @return The value.
+     */
+    private static long getUpperBound(int bucket) {
+        if(bucket < (1 << SUB_BUCKET_BITS))
+            return bucket;
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long top = bucket - shift * SUB_BUCKET_COUNT;
+        return ((top + 1L) << shift) - 1L;
+    }
+
+    /**
+     * Records a value. Recording never allocates.
+     * @param value The value, negative values are recorded as zero.
+     */
+    public void record(long value) {
+        if(value < 0L)
+            value = 0L;
+        counts[getBucket(value)]++;
+        count++;
+        sum += value;
+        if(value > maximum)
+            maximum = value;
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this histogram.
+     * @param histogram The other histogram.
+     */
+    public void add(Histogram histogram) {
+        for(int i = 0; i < counts.length; i++)
+            counts[i] += histogram.counts[i];
+        count += histogram.count;
+        sum += histogram.sum;
+        if(histogram.maximum > maximum)
+            maximum = histogram.maximum;
+    }
+
+    /**
+     * Removes the values recorded by another histogram from this histogram, which
+     * leaves the values recorded in between when the other histogram is an earlier
+     * copy of this one. The largest value left is only known to the precision of
+     * its bucket.
+     * @param histogram The other histogram.
+     */
+    public void subtract(Histogram histogram) {
+        long largest = -1L;
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] -= histogram.counts[i];
+            if(counts[i] > 0L)
+                largest = getUpperBound(i);
+        }
+        count -= histogram.count;
+        sum -= histogram.sum;
+        maximum = largest < 0L ? 0L : Math.min(largest, maximum);
+    }
+
+    /**
+     * Removes every recorded value.
+     */
+    public void reset() {
+        for(int i = 0; i < counts.length; i++)
+            counts[i] = 0L;
+        count = 0L;
+        sum = 0L;
+        maximum = 0L;
+    }
+
+    /**
+     * Gets the value that a percentage of the recorded values are at or below.
+     * @param percentile The percentage, between 0 and 100.
+     * @return The value, the upper bound of its bucket but never more than the
+     *         largest recorded value, or zero if no values were recorded.
+     */
+    public long getPercentile(double percentile) {
+        if(count == 0L)
+            return 0L;
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100D * count));
+        long seen = 0L;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank)
+                return Math.min(getUpperBound(i), maximum);
+        }
+        return maximum;
+    }
+
+    /**
+     * Gets the amount of recorded values.
+     * @return The amount of values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     * @return The mean, or zero if no values were recorded.
+     */
+    public double getMean() {
+        return count == 0L ? 0D : (double) sum / count;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     * @return The value, or zero if no values were recorded.
+     */
+    public long getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * Constructs a new {@link Histogram}; A histogram is not thread safe, each
+     * thread records into a histogram of its own and the histograms are added
+     * together to be read.
+     */
+    public Histogram() {
+        counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + SUB_BUCKET_COUNT];
+    }
+}
@@ -0,0 +1,113 @@
+package org.runetekk;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * IndexFingerprint.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class IndexFingerprint {
+
+    /**
+     * The id of the fingerprinted index.
+     */
+    private int indexId;
+
+    /**
+     * The length of the index file.
+     */
+    private long length;
+
+    /**
+     * The time at which the index file was last modified.
+     */
+    private long lastModified;
+
+    /**
+     * The CRC32 of the contents of the index file.
+     */
+    private long hash;
+
+    /**
+     * Creates a new {@link IndexFingerprint} of an index file.
+     * @param indexId The id of the index.
+     * @param file The index file.
+     * @return The created fingerprint.
+     * @throws IOException An I/O error occurred while reading the index file.
+     */
+    public static IndexFingerprint create(int indexId, File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = is.read(buffer)) != -1)
+                crc.update(buffer, 0, read);
+        } finally {
+            is.close();
+        }
+        return new IndexFingerprint(indexId, file.length(), file.lastModified(), crc.getValue());
+    }
+
+    /**
+     * Reads an {@link IndexFingerprint}.
+     * @param is The stream to read the fingerprint from.
+     * @return The read fingerprint.
+     * @throws IOException An I/O error occurred while reading.
+     */
+    public static IndexFingerprint read(DataInputStream is) throws IOException {
+        return new IndexFingerprint(is.readUnsignedByte(), is.readLong(), is.readLong(), is.readLong());
+    }
+
+    /**
+     * Writes this {@link IndexFingerprint}.
+     * @param os The stream to write the fingerprint to.
+     * @throws IOException An I/O error occurred while writing.
+     */
+    public void write(DataOutputStream os) throws IOException {
+        os.writeByte(indexId);
+        os.writeLong(length);
+        os.writeLong(lastModified);
+        os.writeLong(hash);
+    }
+
+    /**
+     * Gets the id of the fingerprinted index.
+     * @return The index id.
+     */
+    public int getIndexId() {
+        return indexId;
+    }
+
+    /**
+     * Gets if this {@link IndexFingerprint} matches another, meaning the index
+     * file did not change between them.
+     * @param other The other fingerprint.
+     * @return If the fingerprints match.
+     */
+    public boolean matches(IndexFingerprint other) {
+        return other != null && indexId == other.indexId && length == other.length &&
+               lastModified == other.lastModified && hash == other.hash;
+    }
+
+    /**
+     * Constructs a new {@link IndexFingerprint};
+     * @param indexId The id of the index.
+     * @param length The length of the index file.
+     * @param lastModified The time at which the index file was last modified.
+     * @param hash The CRC32 of the contents of the index file.
+     */
+    private IndexFingerprint(int indexId, long length, long lastModified, long hash) {
+        this.indexId = indexId;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.hash = hash;
+    }
+}
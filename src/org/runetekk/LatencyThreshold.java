@@ -0,0 +1,107 @@
+package org.runetekk;
+
+import java.util.Set;
+import jdk.jfr.SettingControl;
+
+/**
+ * LatencyThreshold.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class LatencyThreshold extends SettingControl {
+
+    /**
+     * The threshold that is used when a recording does not set one.
+     */
+    static final String DEFAULT_VALUE = "10 ms";
+
+    /**
+     * The units a threshold can be given in and the amount of nanoseconds in each.
+     */
+    private static final String[] UNITS = { "ns", "us", "ms", "s" };
+
+    /**
+     * The amount of nanoseconds in each unit.
+     */
+    private static final long[] UNIT_NANOS = { 1L, 1000L, 1000000L, 1000000000L };
+
+    /**
+     * The current threshold in nanoseconds.
+     */
+    private volatile long nanos;
+
+    /**
+     * The current threshold as it was set.
+     */
+    private String value;
+
+    /**
+     * Parses a threshold, an amount followed by a space and a unit.
+     * @param value The threshold.
+     * @return The amount of nanoseconds, or -1 if the threshold is invalid.
+     */
+    private static long parse(String value) {
+        String[] parts = value.trim().split("\\s+");
+        if(parts.length == 1 && parts[0].equals("0"))
+            return 0L;
+        if(parts.length != 2)
+            return -1L;
+        for(int i = 0; i < UNITS.length; i++) {
+            if(!UNITS[i].equals(parts[1]))
+                continue;
+            try {
+                long amount = Long.parseLong(parts[0]);
+                return amount < 0L ? -1L : amount * UNIT_NANOS[i];
+            } catch(NumberFormatException ex) {
+                return -1L;
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Gets the current threshold.
+     * @return The amount of nanoseconds.
+     */
+    long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String combine(Set<String> values) {
+        String combined = null;
+        long smallest = Long.MAX_VALUE;
+        for(String value : values) {
+            long threshold = parse(value);
+            if(threshold >= 0L && threshold < smallest) {
+                smallest = threshold;
+                combined = value;
+            }
+        }
+        return combined == null ? DEFAULT_VALUE : combined;
+    }
+
+    @Override
+    public void setValue(String value) {
+        long threshold = parse(value);
+        if(threshold < 0L)
+            return;
+        this.value = value;
+        nanos = threshold;
+    }
+
+    @Override
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Constructs a new {@link LatencyThreshold}; The threshold keeps the events of
+     * the requests that took at least as long, when several recordings run at once
+     * the smallest of their thresholds is used.
+     */
+    public LatencyThreshold() {
+        value = DEFAULT_VALUE;
+        nanos = parse(DEFAULT_VALUE);
+    }
+}
@@ -0,0 +1,274 @@
+package org.runetekk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LoadFile.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class LoadFile {
+
+    /**
+     * The version of the LOADFILE that only lists the archives.
+     */
+    public static final int VERSION_1 = 1;
+
+    /**
+     * The version of the LOADFILE that also holds the length and CRC32 of each
+     * archive and the totals of each index.
+     */
+    public static final int VERSION_2 = 2;
+
+    /**
+     * The opcode that ends a LOADFILE.
+     */
+    private static final int OPCODE_END = 0;
+
+    /**
+     * The opcode of an archive record.
+     */
+    private static final int OPCODE_ARCHIVE = 1;
+
+    /**
+     * The opcode of the version header, the first opcode of every LOADFILE
+     * but the first version.
+     */
+    private static final int OPCODE_VERSION = 2;
+
+    /**
+     * The opcode of the totals of an index, followed by the records of the index.
+     */
+    private static final int OPCODE_INDEX = 3;
+
+    /**
+     * The version of this LOADFILE.
+     */
+    private int version;
+
+    /**
+     * The records, the high bits of a record hold the index id and the low bits
+     * the archive id.
+     */
+    private int[] records;
+
+    /**
+     * The lengths of the archives of the records.
+     */
+    private int[] lengths;
+
+    /**
+     * The CRC32 of the archives of the records.
+     */
+    private int[] checksums;
+
+    /**
+     * The amount of records.
+     */
+    private int recordCount;
+
+    /**
+     * Reads a LOADFILE of any version.
+     * @param path The path of the LOADFILE.
+     * @return The read LOADFILE.
+     * @throws IOException An I/O error occurred while reading or the LOADFILE is malformed.
+     */
+    public static LoadFile read(String path) throws IOException {
+        DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        try {
+            int opcode = is.read();
+            int version = VERSION_1;
+            if(opcode == OPCODE_VERSION) {
+                version = is.readUnsignedByte();
+                if(version != VERSION_2)
+                    throw new IOException("Unsupported LOADFILE version " + version);
+                opcode = is.read();
+            }
+            LoadFile loadFile = new LoadFile(version);
+            int indexId = -1;
+            int indexCount = 0;
+            long indexTotal = 0L;
+            for(; opcode != OPCODE_END; opcode = is.read()) {
+                if(opcode == -1)
+                    throw new EOFException("LOADFILE is not terminated");
+                if(version == VERSION_1) {
+                    if(opcode == OPCODE_ARCHIVE)
+                        loadFile.add(is.readUnsignedByte(), is.readUnsignedShort(), -1, 0);
+                    continue;
+                }
+                if(opcode == OPCODE_INDEX) {
+                    if(indexCount != 0 || indexTotal != 0L)
+                        throw new IOException("Index " + indexId + " does not match its totals");
+                    indexId = is.readUnsignedByte();
+                    indexCount = is.readInt();
+                    indexTotal = is.readLong();
+                } else if(opcode == OPCODE_ARCHIVE) {
+                    int archiveIndexId = is.readUnsignedByte();
+                    int archiveId = is.readUnsignedShort();
+                    int length = is.readInt();
+                    int checksum = is.readInt();
+                    if(archiveIndexId != indexId)
+                        throw new IOException("Archive " + archiveId + " of index " + archiveIndexId + " is outside of its index");
+                    loadFile.add(archiveIndexId, archiveId, length, checksum);
+                    indexCount--;
+                    indexTotal -= length;
+                } else
+                    throw new IOException("Invalid LOADFILE opcode " + opcode);
+            }
+            if(indexCount != 0 || indexTotal != 0L)
+                throw new IOException("Index " + indexId + " does not match its totals");
+            return loadFile;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Writes this LOADFILE. The records of each index must be grouped together,
+     * the totals of an index are written before its records.
+     * @param path The path to write the LOADFILE to.
+     * @throws IOException An I/O error occurred while writing.
+     */
+    public void write(String path) throws IOException {
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        try {
+            if(version != VERSION_1) {
+                os.writeByte(OPCODE_VERSION);
+                os.writeByte(version);
+            }
+            for(int i = 0; i < recordCount; i++) {
+                int indexId = getIndexId(i);
+                if(version != VERSION_1 && (i == 0 || getIndexId(i - 1) != indexId)) {
+                    int count = 0;
+                    long total = 0L;
+                    for(int j = i; j < recordCount && getIndexId(j) == indexId; j++) {
+                        count++;
+                        total += lengths[j];
+                    }
+                    os.writeByte(OPCODE_INDEX);
+                    os.writeByte(indexId);
+                    os.writeInt(count);
+                    os.writeLong(total);
+                }
+                os.writeByte(OPCODE_ARCHIVE);
+                os.writeByte(indexId);
+                os.writeShort(getArchiveId(i));
+                if(version != VERSION_1) {
+                    os.writeInt(lengths[i]);
+                    os.writeInt(checksums[i]);
+                }
+            }
+            os.writeByte(OPCODE_END);
+            os.flush();
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Adds a record.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @param length The length of the archive, -1 if it is not known.
+     * @param checksum The CRC32 of the archive.
+     */
+    public void add(int indexId, int archiveId, int length, int checksum) {
+        if(recordCount == records.length) {
+            records = Arrays.copyOf(records, recordCount * 2);
+            lengths = Arrays.copyOf(lengths, recordCount * 2);
+            checksums = Arrays.copyOf(checksums, recordCount * 2);
+        }
+        records[recordCount] = indexId << 16 | archiveId;
+        lengths[recordCount] = length;
+        checksums[recordCount] = checksum;
+        recordCount++;
+    }
+
+    /**
+     * Gets the version of this LOADFILE.
+     * @return The version.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets if this LOADFILE holds the length and CRC32 of each archive.
+     * @return If the archives are verified.
+     */
+    public boolean isVerified() {
+        return version != VERSION_1;
+    }
+
+    /**
+     * Gets the amount of records.
+     * @return The amount of records.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Gets a record.
+     * @param i The position of the record.
+     * @return The record, the high bits hold the index id and the low bits the archive id.
+     */
+    public int getRecord(int i) {
+        return records[i];
+    }
+
+    /**
+     * Gets the index id of a record.
+     * @param i The position of the record.
+     * @return The index id.
+     */
+    public int getIndexId(int i) {
+        return records[i] >>> 16;
+    }
+
+    /**
+     * Gets the archive id of a record.
+     * @param i The position of the record.
+     * @return The archive id.
+     */
+    public int getArchiveId(int i) {
+        return records[i] & 0xFFFF;
+    }
+
+    /**
+     * Gets the length of the archive of a record.
+     * @param i The position of the record.
+     * @return The length or -1 if this LOADFILE is not verified.
+     */
+    public int getLength(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * Gets the CRC32 of the archive of a record.
+     * @param i The position of the record.
+     * @return The CRC32.
+     */
+    public int getChecksum(int i) {
+        return checksums[i];
+    }
+
+    /**
+     * Constructs a new {@link LoadFile};
+     * @param version The version of the LOADFILE.
+     */
+    public LoadFile(int version) {
+        this.version = version;
+        records = new int[1024];
+        lengths = new int[1024];
+        checksums = new int[1024];
+    }
+}
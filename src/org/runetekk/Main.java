@@ -1,19 +1,30 @@
 package org.runetekk;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.LinkedList;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,27 +43,49 @@ public final class Main implements Runnable {
     /**
      * The amount of bytes in a block.
      */
-    private static final int BLOCK_SIZE = 500;
+    static final int BLOCK_SIZE = 500;
+    
+    /**
+     * The amount of bytes in the header of a block.
+     */
+    static final int HEADER_SIZE = 6;
     
     /**
      * The amount of bytes in a request.
      */
-    private static final int REQUEST_SIZE = 4;
+    static final int REQUEST_SIZE = 4;
         
     /**
-     * The {@link DirectBuffer} array for all the loaded archives.
+     * The current {@link ArchiveSnapshot} that new requests are served from. The
+     * snapshot is never modified once it is loaded so it is shared between all
+     * the {@link EventLoop}s without locking, it is only ever replaced as a whole.
      */
-    private static DirectBuffer[][] archiveBuffers;
+    private static volatile ArchiveSnapshot archiveSnapshot;
     
     /**
-     * The {@link FileIndex} array.
+     * The {@link Main} handler.
      */
-    private static FileIndex[] fileIndexes;
+    private static Main main;
     
     /**
-     * The {@link Main} handler.
+     * The {@link SelectorServer} handler.
      */
-    private static Main main;
+    private static SelectorServer selectorServer;
+    
+    /**
+     * The {@link ThreadServer} handler.
+     */
+    private static ThreadServer threadServer;
+    
+    /**
+     * The {@link ArchiveReloader} handler, or null if the archives are never reloaded.
+     */
+    private static ArchiveReloader archiveReloader;
+    
+    /**
+     * The {@link Metrics} of the server.
+     */
+    static Metrics metrics;
     
     /**
      * The local thread.
@@ -65,15 +98,77 @@ public final class Main implements Runnable {
     private boolean isPaused;
     
     /**
-     * The {@link ServerSocket} to accept connections from.
+     * The {@link ServerSocketChannel} to accept connections from. The channel blocks
+     * while accepting, for at most the timeout of its socket, but the accepted
+     * channels never block.
      */
-    private ServerSocket serverSocket;
+    private ServerSocketChannel serverChannel;
     
     /**
-     * The {@link Client} queue.
+     * The {@link Client} queue. The legacy loop has no readiness notification, so
+     * every client in the queue is still read once each cycle whether it sent
+     * anything or not. Only the timeouts are kept off that path, by the
+     * {@link TimingWheel}. The selector engine visits only the ready clients.
      */
     private Deque<Client> clientQueue;
     
+    /**
+     * The queue of the {@link Client}s whose handshake has not been handled yet.
+     */
+    private Deque<Client> handshakeQueue;
+    
+    /**
+     * The {@link Scheduler} that decides which client is served next.
+     */
+    private Scheduler scheduler;
+    
+    /**
+     * The {@link TimingWheel} that holds the handshake, idle and stall timeouts
+     * of the clients.
+     */
+    private TimingWheel timingWheel;
+    
+    /**
+     * The {@link MetricsRecorder} that the clients of the local thread record into.
+     */
+    private MetricsRecorder metricsRecorder;
+    
+    /**
+     * The amount of clients that are currently connected.
+     */
+    static AtomicInteger connectedClients = new AtomicInteger();
+    
+    /**
+     * The amount of connected clients whose handshake was not handled yet.
+     */
+    static AtomicInteger handshakingClients = new AtomicInteger();
+    
+    /**
+     * The amount of clients that are currently stalled.
+     */
+    static AtomicInteger stalledClients = new AtomicInteger();
+    
+    /**
+     * The maximum length of the queue of incoming connections.
+     */
+    static int backlog;
+    
+    /**
+     * The maximum amount of connections that are accepted in one cycle.
+     */
+    static int acceptLimit;
+    
+    /**
+     * The maximum amount of handshaking clients that are handled in one cycle.
+     */
+    static int handshakeLimit;
+    
+    /**
+     * The maximum amount of bytes that are framed for a client in one cycle and
+     * written to it at once, never less than a single framed block.
+     */
+    static int writeBudget;
+    
     /**
      * Prints the application tag.
      */
@@ -99,145 +194,256 @@ public final class Main implements Runnable {
                 if(isPaused)
                     break;
                 Client client = null;
-                try {
-                     Socket socket = serverSocket.accept();
-                     client = new Client(socket);
-                } catch(IOException ex) {
-                    if(!(ex instanceof SocketTimeoutException))
-                        destroy();
-                }     
-                if(client != null) {   
-                    client.clientTimeout = System.currentTimeMillis() + 5000L;
-                    synchronized(clientQueue) {
-                        clientQueue.add(client);
+                for(int i = 0; i < acceptLimit; i++) {
+                    try {
+                         SocketChannel channel = serverChannel.socket().accept().getChannel();
+                         channel.configureBlocking(false);
+                         channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                         client = new Client(channel, timingWheel, metricsRecorder);
+                    } catch(IOException ex) {
+                        if(!(ex instanceof SocketTimeoutException))
+                            destroy();
+                        break;
+                    }
+                    client.setTimeout(System.currentTimeMillis() + 5000L);
+                    synchronized(handshakeQueue) {
+                        handshakeQueue.add(client);
                     }
-                }   
+                }
                 Client firstClient = null;
-                clientloop:
-                for(int i = 0; i < 10; i++) {
-                    client = clientQueue.poll();
+                for(int i = 0; i < handshakeLimit; i++) {
+                    client = handshakeQueue.poll();
                     if(client == null)
                         break;
                     if(firstClient == null)
                         firstClient = client;
-                    else if(firstClient != client) {
-                        clientQueue.addLast(client);
+                    else if(firstClient == client) {
+                        handshakeQueue.addFirst(client);
                         break;
                     }
-                    if(client.clientTimeout > 0L && client.clientTimeout < System.currentTimeMillis()) {
-                        LOGGER.log(Level.FINE, "Client disconnected : Timeout!");
+                    if(client.isDestroyed())
+                        continue;
+                    try {
+                        if(client.channel.read(client.readBuffer) < 0) {
+                            LOGGER.log(Level.FINE, "Client disconnected : EOF!");
+                            client.destroy();
+                            continue;
+                        }
+                        if(client.readBuffer.position() >= 1) {
+                            client.readBuffer.flip();
+                            if(client.readBuffer.get() == 15) {
+                                client.readBuffer.compact();
+                                client.completeHandshake();
+                                client.setTimeout(-1L);
+                                clientQueue.addLast(client);
+                                continue;
+                            } else {
+                                LOGGER.log(Level.WARNING, "Client disconnected : Invalid OP!");
+                                client.destroy();
+                                continue;
+                            }  
+                        }
+                    } catch(IOException ioex) {
+                        LOGGER.log(Level.WARNING, "Error - ", ioex);
                         client.destroy();
                         continue;
                     }
+                    handshakeQueue.addLast(client);
+                }
+                long currentTime = System.currentTimeMillis();
+                while((client = timingWheel.poll(currentTime)) != null) {
+                    if(client.isStalled())
+                        LOGGER.log(Level.WARNING, "Client disconnected : Stalled!");
+                    else
+                        LOGGER.log(Level.FINE, "Client disconnected : Timeout!");
+                    client.destroy();
+                }
+                int clientCount = clientQueue.size();
+                clientloop:
+                for(int i = 0; i < clientCount; i++) {
+                    client = clientQueue.poll();
+                    if(client.isDestroyed())
+                        continue;
                     try {
-                        int avail = client.inputStream.available();
-                        if(!client.handshakeHandled) {
-                            if(avail >= 1) {
-                                if(client.inputStream.read() == 15) {
-                                    client.outputStream.write(new byte[8]);
-                                    client.outputStream.flush();
-                                    client.handshakeHandled = true;
-                                    client.clientTimeout = -1L;
-                                } else {
-                                    LOGGER.log(Level.WARNING, "Client disconnected : Invalid OP!");
-                                    client.destroy();
-                                    continue;
-                                }  
-                            }
-                        } else {
-                            if(avail > REQUEST_SIZE) {
-                                byte[] requestBuffer = new byte[avail - (avail % REQUEST_SIZE)];
-                                int read;
-                                for(int off = 0; off < avail; off += read) {
-                                    read = client.inputStream.read(requestBuffer, 0, requestBuffer.length - off);
-                                    if(read < 0)
-                                        throw new IOException("EOF");
-                                }
-                                for(int off = 0; off < requestBuffer.length;) {
-                                    int hash = ((requestBuffer[off++] & 0xFF) << 24) |
-                                               ((requestBuffer[off++] & 0xFF) << 16) |
-                                               ((requestBuffer[off++] & 0xFF) << 8) |
-                                                (requestBuffer[off++] & 0xFF);
-                                    int[] queue = (hash & 0xFFL) == 2 ? client.urgentRequests : 
-                                                   (hash & 0xFFL) == 1 ? client.priorityRequests 
-                                                                     : client.passiveRequests;
-                                    int writePosition = queue[queue.length - 1];
-                                    queue[queue.length - 1] = (queue[queue.length - 1] + 1) % Client.QUEUE_SIZE;
-                                    if(queue[queue.length - 1] == queue[queue.length - 2]) {
-                                        LOGGER.log(Level.WARNING, "Client disconnected : Queue overfill!");
-                                        client.destroy();
-                                        continue clientloop;
-                                    }
-                                    queue[writePosition] = hash;
-                                }
-                            }
-                            int[] queue = null;
-                            int position = -1;
-                            if(client.urgentRequests[client.urgentRequests.length - 1] != 
-                               client.urgentRequests[client.urgentRequests.length - 2]) {
-                                position = client.urgentRequests[client.urgentRequests.length - 2];                          
-                                queue = client.urgentRequests;
-                            }   
-                            if(position == -1) {
-                                if(client.priorityRequests[client.priorityRequests.length - 1] != 
-                                   client.priorityRequests[client.priorityRequests.length - 2]) {
-                                    position = client.priorityRequests[client.priorityRequests.length - 2];                               
-                                    queue = client.priorityRequests;
-                                }  
-                            }
-                            if(position == -1) {
-                                if(client.passiveRequests[client.passiveRequests.length - 1] != 
-                                   client.passiveRequests[client.passiveRequests.length - 2]) {
-                                    position = (int) client.passiveRequests[client.passiveRequests.length - 2];                               
-                                    queue = client.passiveRequests;
-                                } 
-                            }
-                            if(queue != null) {
-                                client.clientTimeout = -1L;
-                                int hash = queue[position];
-                                int archiveId = (hash & 0xFFFF00) >> 8;
-                                int indexId = (hash & 0xFF000000) >> 24;
-                                if(queue[queue.length - 3] == 0 && archiveBuffers.length > indexId && indexId >= 0 && archiveBuffers[indexId].length > archiveId && archiveId >= 0 && archiveBuffers[indexId][archiveId] != null) {
-                                    queue[queue.length - 3] =  (archiveBuffers[indexId][archiveId].getCapacity() & 0xFFFF) << 8;
-                                }
-                                int size = (queue[queue.length - 3] & 0xFFFF00) >> 8;
-                                int block = queue[queue.length - 3] & 0xFF;
-                                byte[] header = { (byte) indexId, 
-                                                  (byte) (archiveId >> 8), 
-                                                  (byte) (archiveId & 0xFF),
-                                                  (byte) (size >> 8),
-                                                  (byte) (size & 0xFF),
-                                                  (byte) (block & 0xFF)
-                                                };
-                               client.outputStream.write(header);
-                               int write = size - (block * BLOCK_SIZE); 
-                               if(write > BLOCK_SIZE)
-                                   write = BLOCK_SIZE;
-                               if(write > 0) {
-                                   client.outputStream.write(archiveBuffers[indexId][archiveId].get(BLOCK_SIZE * block, write), 0, write);
-                                   client.outputStream.flush();
-                               }
-                               if(write < BLOCK_SIZE) {
-                                   queue[queue.length - 2] = (queue[queue.length - 2] + 1) % Client.QUEUE_SIZE;
-                                   queue[queue.length - 3] = 0;
-                               } else
-                                   queue[queue.length - 3] = (queue[queue.length - 3] & ~0xFF) | (block + 1);               
-                            } else {
-                                if(client.clientTimeout < 0L)
-                                    client.clientTimeout = System.currentTimeMillis() + 5000L;
+                        if(client.channel.read(client.readBuffer) < 0) {
+                            LOGGER.log(Level.FINE, "Client disconnected : EOF!");
+                            client.destroy();
+                            continue;
+                        }
+                        client.readBuffer.flip();
+                        long now = client.readBuffer.remaining() >= REQUEST_SIZE ? System.nanoTime() : 0L;
+                        while(client.readBuffer.remaining() >= REQUEST_SIZE) {
+                            if(!client.queueRequest(client.readBuffer.getInt(), now)) {
+                                LOGGER.log(Level.WARNING, "Client disconnected : Queue overfill!");
+                                client.destroy();
+                                continue clientloop;
                             }
-                        }         
+                        }
+                        client.readBuffer.compact();
+                        if(client.hasPendingOutput())
+                            client.flush();
                     } catch(IOException ioex) {
                         LOGGER.log(Level.WARNING, "Error - ", ioex);
                         client.destroy();
                         continue;
                     }
+                    if(client.getNextQueue() != null) {
+                        if(!client.isStalled())
+                            client.setTimeout(-1L);
+                        if(client.canProduce())
+                            scheduler.add(client);
+                    } else if(!client.hasPendingOutput()) {
+                        client.releaseSnapshot();
+                        client.releaseWriteBuffer();
+                        if(client.clientTimeout < 0L)
+                            client.setTimeout(currentTime + 5000L);
+                    }
                     clientQueue.addLast(client);
                 }
+                long now = System.nanoTime();
+                for(int served = 0; served < Scheduler.cycleBudget;) {
+                    int priorityClass = scheduler.nextClass(now);
+                    if(priorityClass == -1)
+                        break;
+                    client = scheduler.poll(priorityClass);
+                    if(!client.hasRequests(priorityClass) || !client.canProduce())
+                        continue;
+                    int limit = scheduler.allow(client, priorityClass, Scheduler.cycleBudget - served, now);
+                    if(limit == 0)
+                        continue;
+                    int pending = client.writeBuffer.remaining();
+                    client.writeBuffer.compact();
+                    int blocks = frameBlocks(client, client.getQueue(priorityClass), client.writeBuffer, Math.min(limit, writeBudget / Client.FRAMED_BLOCK_SIZE));
+                    client.writeBuffer.flip();
+                    if(blocks < 0) {
+                        scheduler.charge(client, priorityClass, 0, 0);
+                        LOGGER.log(Level.WARNING, "Client disconnected : Archive unavailable!");
+                        client.destroy();
+                        continue;
+                    }
+                    scheduler.charge(client, priorityClass, blocks, client.writeBuffer.remaining() - pending);
+                    metricsRecorder.recordServed(priorityClass, blocks, client.writeBuffer.remaining() - pending);
+                    served += blocks;
+                    try {
+                        client.flush();
+                    } catch(IOException ioex) {
+                        LOGGER.log(Level.WARNING, "Error - ", ioex);
+                        client.destroy();
+                        continue;
+                    }
+                    if(client.canProduce())
+                        scheduler.add(client);
+                }
             }
         }
     }
     
+    /**
+     * Puts the header of a block into a buffer.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @param size The size of the archive.
+     * @param block The block of the archive.
+     * @param dst The buffer to put the header into.
+     */
+    static void putHeader(int indexId, int archiveId, int size, int block, ByteBuffer dst) {
+        dst.put((byte) indexId);
+        dst.put((byte) (archiveId >> 8));
+        dst.put((byte) (archiveId & 0xFF));
+        dst.put((byte) (size >> 8));
+        dst.put((byte) (size & 0xFF));
+        dst.put((byte) (block & 0xFF));
+    }
+    
+    /**
+     * Gets the amount of bytes an archive takes once it is framed.
+     * @param length The length of the archive.
+     * @return The amount of bytes of all the framed blocks of the archive.
+     */
+    static int getFramedLength(int length) {
+        int size = length & 0xFFFF;
+        return (size / BLOCK_SIZE + 1) * HEADER_SIZE + size;
+    }
+    
+    /**
+     * Frames all the blocks of an archive, each block preceded by its header, in
+     * the order they are written to the clients.
+     * @param indexId The index id of the archive.
+     * @param archiveId The archive id.
+     * @param src The source byte array of the archive.
+     * @return The framed blocks.
+     */
+    static byte[] frameArchive(int indexId, int archiveId, byte[] src) {
+        int size = src.length & 0xFFFF;
+        ByteBuffer buffer = ByteBuffer.allocate(getFramedLength(src.length));
+        for(int block = 0; block <= size / BLOCK_SIZE; block++) {
+            putHeader(indexId, archiveId, size, block, buffer);
+            buffer.put(src, block * BLOCK_SIZE, Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE));
+        }
+        return buffer.array();
+    }
+    
+    /**
+     * Gets if the archives are transferred from the pack file.
+     * @return If the archives are transferred from the pack file.
+     */
+    static boolean isPacked() {
+        return archiveSnapshot.isPacked();
+    }
+    
+    /**
+     * Acquires a reference to the current {@link ArchiveSnapshot}.
+     * @return The current snapshot, which must be released once it is no longer used.
+     */
+    static ArchiveSnapshot acquireSnapshot() {
+        for(;;) {
+            ArchiveSnapshot snapshot = archiveSnapshot;
+            if(snapshot.acquire())
+                return snapshot;
+        }
+    }
+    
+    /**
+     * Gets if an {@link ArchiveSnapshot} is the current snapshot.
+     * @param snapshot The snapshot.
+     * @return If the snapshot is the current snapshot.
+     */
+    static boolean isCurrentSnapshot(ArchiveSnapshot snapshot) {
+        return archiveSnapshot == snapshot;
+    }
+    
+    /**
+     * Replaces the current {@link ArchiveSnapshot}. The previous snapshot is destroyed
+     * once the last client that is served from it releases it.
+     * @param snapshot The new snapshot.
+     */
+    static void swapSnapshot(ArchiveSnapshot snapshot) {
+        ArchiveSnapshot previous = archiveSnapshot;
+        archiveSnapshot = snapshot;
+        if(previous != null)
+            previous.release();
+    }
+    
+    /**
+     * Frames the next blocks of a queue of a client into a buffer until either the
+     * limit is reached, the buffer cannot hold another block or the queue is empty.
+     * @param client The client to frame the blocks for.
+     * @param queue The queue of the client to frame the blocks from.
+     * @param dst The buffer to put the blocks into.
+     * @param limit The maximum amount of blocks to frame.
+     * @return The amount of blocks framed, or -1 if an archive could not be read and
+     *         the client has to be destroyed.
+     */
+    static int frameBlocks(Client client, int[] queue, ByteBuffer dst, int limit) {
+        int blocks = 0;
+        while(blocks < limit && dst.remaining() >= Client.FRAMED_BLOCK_SIZE && queue[queue.length - 1] != queue[queue.length - 2]) {
+            if(!client.getSnapshot().frameBlock(queue, client, dst))
+                return -1;
+            blocks++;
+        }
+        return blocks;
+    }
+    
     /**
      * Initializes the local thread.
      */
@@ -265,6 +471,135 @@ public final class Main implements Runnable {
         }
     }
     
+    /**
+     * Replaces a file with a file that was written next to it. The file is renamed
+     * over the old one in a single step, a server that still has the old file open
+     * keeps reading the old file until it closes it.
+     * @param temporaryPath The path of the written file.
+     * @param path The path of the file to replace.
+     * @throws IOException An I/O error occurred while renaming the file.
+     */
+    private static void replaceFile(String temporaryPath, String path) throws IOException {
+        Files.move(Paths.get(temporaryPath), Paths.get(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Gets a positive integer property.
+     * @param properties The properties to get the property from.
+     * @param key The property key.
+     * @param defaultValue The value to use if the property is not set.
+     * @return The value of the property.
+     */
+    private static int getIntProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if(value == null)
+            return defaultValue;
+        int i;
+        try {
+            i = Integer.parseInt(value.trim());
+        } catch(NumberFormatException ex) {
+            LOGGER.log(Level.SEVERE, "{0} property key is not a number!", key);
+            throw new RuntimeException();
+        }
+        if(i < 1) {
+            LOGGER.log(Level.SEVERE, "{0} property key must be positive!", key);
+            throw new RuntimeException();
+        }
+        return i;
+    }
+    
+    /**
+     * Gets a property that holds a value for each priority class, in the order
+     * urgent, priority and passive separated by colons.
+     * @param properties The properties to get the property from.
+     * @param key The property key.
+     * @param defaultValue The value to use if the property is not set.
+     * @param minimum The minimum of each value.
+     * @return The values indexed by priority class.
+     */
+    private static int[] getClassProperty(Properties properties, String key, String defaultValue, int minimum) {
+        String[] array = properties.getProperty(key, defaultValue).split("[:]");
+        if(array.length != Scheduler.CLASS_COUNT) {
+            LOGGER.log(Level.SEVERE, "{0} property key must hold {1} values!", new Object[] { key, Scheduler.CLASS_COUNT });
+            throw new RuntimeException();
+        }
+        int[] values = new int[array.length];
+        for(int i = 0; i < array.length; i++) {
+            try {
+                values[i] = Integer.parseInt(array[i].trim());
+            } catch(NumberFormatException ex) {
+                LOGGER.log(Level.SEVERE, "{0} property key is not a number!", key);
+                throw new RuntimeException();
+            }
+            if(values[i] < minimum) {
+                LOGGER.log(Level.SEVERE, "{0} property key values must be at least {1}!", new Object[] { key, minimum });
+                throw new RuntimeException();
+            }
+        }
+        return values;
+    }
+    
+    /**
+     * Opens the file indexes.
+     * @param cacheDir The directory of the cache files.
+     * @param mainFileName The name of the main file.
+     * @param indexIds The ids of the indexes.
+     * @param indexNames The names of the index files.
+     * @param maximumIndex The maximum index id.
+     * @param mapIndexes If the index files are mapped into memory.
+     * @return The {@link FileIndex} array indexed by index id.
+     * @throws IOException An I/O error occurred while opening the files.
+     */
+    static FileIndex[] openFileIndexes(String cacheDir, String mainFileName, int[] indexIds, String[] indexNames, int maximumIndex, boolean mapIndexes) throws IOException {
+        RandomAccessFile mainFile = new RandomAccessFile(cacheDir + mainFileName, "r");
+        ByteBuffer[] mainSegments = mapIndexes ? MappedFileIndex.map(mainFile) : null;
+        FileIndex[] fileIndexes = new FileIndex[maximumIndex + 1];
+        for(int i = 0; i < indexNames.length; i++) {
+            RandomAccessFile indexFile = new RandomAccessFile(cacheDir + indexNames[i], "r");
+            if(mapIndexes)
+                fileIndexes[indexIds[i]] = new MappedFileIndex(indexIds[i] + 2, mainFile, mainSegments, indexFile);
+            else
+                fileIndexes[indexIds[i]] = new FileIndex(indexIds[i] + 2, mainFile, indexFile);
+        }
+        return fileIndexes;
+    }
+    
+    /**
+     * Reads the index fingerprints that were recorded when the LOADFILE was last
+     * created.
+     * @param path The path of the fingerprint file.
+     * @param maximumIndex The maximum index id.
+     * @param mainLength The current length of the main file.
+     * @return The fingerprints indexed by index id, or null if there are none or if
+     *         the main file was truncated since they were recorded.
+     */
+    private static IndexFingerprint[] readFingerprints(String path, int maximumIndex, long mainLength) {
+        if(!new File(path).exists())
+            return null;
+        try {
+            DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+            try {
+                if(is.readLong() > mainLength)
+                    return null;
+                IndexFingerprint[] fingerprints = new IndexFingerprint[maximumIndex + 1];
+                int opcode = 0;
+                while((opcode = is.read()) != 0) {
+                    if(opcode != 1)
+                        throw new IOException("Invalid fingerprint opcode " + opcode);
+                    IndexFingerprint fingerprint = IndexFingerprint.read(is);
+                    if(fingerprint.getIndexId() <= maximumIndex)
+                        fingerprints[fingerprint.getIndexId()] = fingerprint;
+                }
+                return fingerprints;
+            } finally {
+                is.close();
+            }
+        } catch(IOException ioex) {
+            LOGGER.log(Level.WARNING, "Failed to read the index fingerprints, validating every index - ", ioex);
+            return null;
+        }
+    }
+    
     /**
      * The main starting point for this application.
      * @param args The command line arguments.
@@ -325,31 +660,124 @@ public final class Main implements Runnable {
                 throw new RuntimeException();
             }
         }
-        RandomAccessFile mainFile = null;
-        try {
-            mainFile = new RandomAccessFile(cacheDir + mainIndexName, "r");
-            fileIndexes = new FileIndex[maximumIndex + 1];
-            for(int i = 0; i < indexNames.length; i++) {
-                fileIndexes[indexIds[i]] = new FileIndex(indexIds[i] + 2, mainFile, new RandomAccessFile(cacheDir + indexNames[i], "r"));
-            }
-        } catch(Exception ex) {
-            LOGGER.log(Level.SEVERE, "Exception thrown while loading the file indexes - ", ex);
+        boolean sendfile = Boolean.parseBoolean(serverProperties.getProperty("SENDFILE", "false"));
+        String packFile = serverProperties.getProperty("PACKFILE");
+        if(sendfile && packFile == null) {
+            LOGGER.log(Level.SEVERE, "PACKFILE property key is null!");
+            throw new RuntimeException();
+        }
+        boolean mapIndexes = Boolean.parseBoolean(serverProperties.getProperty("MAPINDEXES", "false"));
+        int loadThreads = getIntProperty(serverProperties, "LOADTHREADS", Runtime.getRuntime().availableProcessors());
+        int loadFileVersion = getIntProperty(serverProperties, "LOADFILEVERSION", LoadFile.VERSION_2);
+        if(loadFileVersion != LoadFile.VERSION_1 && loadFileVersion != LoadFile.VERSION_2) {
+            LOGGER.log(Level.SEVERE, "Unsupported LOADFILE version : {0}!", loadFileVersion);
             throw new RuntimeException();
         }
         if(args[0].equals("setup")) {
+            FileIndex[] fileIndexes = null;
             try {
-                DataOutputStream os = new DataOutputStream(new FileOutputStream(outDir + qLoadFile));
+                fileIndexes = openFileIndexes(cacheDir, mainIndexName, indexIds, indexNames, maximumIndex, mapIndexes);
+            } catch(Exception ex) {
+                LOGGER.log(Level.SEVERE, "Exception thrown while loading the file indexes - ", ex);
+                throw new RuntimeException();
+            }
+            try {
+                long startTime = System.currentTimeMillis();
+                String fingerprintFile = outDir + qLoadFile + ".fingerprint";
+                IndexFingerprint[] fingerprints = new IndexFingerprint[indexIds.length];
+                for(int i = 0; i < indexIds.length; i++)
+                    fingerprints[i] = IndexFingerprint.create(indexIds[i], new File(cacheDir + indexNames[i]));
+                IndexFingerprint[] previousFingerprints = readFingerprints(fingerprintFile, maximumIndex, new File(cacheDir + mainIndexName).length());
+                LoadFile previousLoadFile = null;
+                if(previousFingerprints != null) {
+                    try {
+                        previousLoadFile = LoadFile.read(outDir + qLoadFile);
+                        if(previousLoadFile.getVersion() != loadFileVersion) {
+                            LOGGER.log(Level.INFO, "The previous LOADFILE is version {0}, validating every index.", previousLoadFile.getVersion());
+                            previousLoadFile = null;
+                        }
+                    } catch(IOException ioex) {
+                        LOGGER.log(Level.WARNING, "Failed to read the previous LOADFILE, validating every index - ", ioex);
+                    }
+                }
+                boolean verified = loadFileVersion != LoadFile.VERSION_1;
+                boolean[][] valid = new boolean[maximumIndex + 1][];
+                int[][] lengths = new int[maximumIndex + 1][];
+                int[][] checksums = new int[maximumIndex + 1][];
+                boolean[] unchanged = new boolean[maximumIndex + 1];
+                ArchiveValidator[] validators = new ArchiveValidator[indexIds.length];
+                ForkJoinPool pool = new ForkJoinPool(loadThreads);
+                try {
+                    for(int i = 0; i < indexIds.length; i++) {
+                        int indexId = indexIds[i];
+                        valid[indexId] = new boolean[fileIndexes[indexId].getSize()];
+                        if(verified) {
+                            lengths[indexId] = new int[valid[indexId].length];
+                            checksums[indexId] = new int[valid[indexId].length];
+                        }
+                        if(previousLoadFile != null && fingerprints[i].matches(previousFingerprints[indexId])) {
+                            unchanged[indexId] = true;
+                            continue;
+                        }
+                        validators[i] = new ArchiveValidator(fileIndexes[indexId], valid[indexId], lengths[indexId], checksums[indexId], 0, valid[indexId].length);
+                        pool.execute(validators[i]);
+                    }
+                    for(int i = 0; i < indexIds.length; i++) {
+                        if(validators[i] != null)
+                            validators[i].join();
+                    }
+                } finally {
+                    pool.shutdown();
+                }
+                int unchangedCount = 0;
+                for(int i = 0; i < indexIds.length; i++) {
+                    if(unchanged[indexIds[i]])
+                        unchangedCount++;
+                }
+                if(unchangedCount > 0) {
+                    for(int i = 0; i < previousLoadFile.getRecordCount(); i++) {
+                        int indexId = previousLoadFile.getIndexId(i);
+                        int archiveId = previousLoadFile.getArchiveId(i);
+                        if(indexId > maximumIndex || !unchanged[indexId] || archiveId >= valid[indexId].length)
+                            continue;
+                        valid[indexId][archiveId] = true;
+                        if(verified) {
+                            lengths[indexId][archiveId] = previousLoadFile.getLength(i);
+                            checksums[indexId][archiveId] = previousLoadFile.getChecksum(i);
+                        }
+                    }
+                }
+                LOGGER.log(Level.INFO, "Validated the archives of {0} indexes in {1} ms using {2} threads, {3} unchanged indexes were reused.", new Object[] { indexIds.length - unchangedCount, System.currentTimeMillis() - startTime, loadThreads, unchangedCount });
+                new File(fingerprintFile).delete();
+                LoadFile loadFile = new LoadFile(loadFileVersion);
+                OutputStream packStream = sendfile ? new BufferedOutputStream(new FileOutputStream(outDir + packFile + ".tmp")) : null;
                 for(int i = 0; i < indexIds.length; i++) { 
-                    FileIndex index = fileIndexes[indexIds[i]];
-                    int size = index.getSize();
-                    for(int j = 0; j < size; j++) {
-                        if(index.get(j) != null) {
-                            os.writeByte(1);
-                            os.writeByte(indexIds[i]);
-                            os.writeShort(j);
+                    int indexId = indexIds[i];
+                    for(int j = 0; j < valid[indexId].length; j++) {
+                        if(valid[indexId][j]) {
+                            loadFile.add(indexId, j, verified ? lengths[indexId][j] : -1, verified ? checksums[indexId][j] : 0);
+                            if(packStream != null) {
+                                byte[] src = fileIndexes[indexId].get(j);
+                                if(src == null)
+                                    throw new IOException("Failed to pack archive " + j + " of index " + indexId);
+                                packStream.write(frameArchive(indexId, j, src));
+                            }
                         }
                     }
                 }
+                loadFile.write(outDir + qLoadFile + ".tmp");
+                if(packStream != null) {
+                    packStream.flush();
+                    packStream.close();
+                    replaceFile(outDir + packFile + ".tmp", outDir + packFile);
+                }
+                replaceFile(outDir + qLoadFile + ".tmp", outDir + qLoadFile);
+                DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fingerprintFile)));
+                os.writeLong(new File(cacheDir + mainIndexName).length());
+                for(int i = 0; i < indexIds.length; i++) {
+                    os.writeByte(1);
+                    fingerprints[i].write(os);
+                }
                 os.writeByte(0);
                 os.flush();
                 os.close();
@@ -365,27 +793,84 @@ public final class Main implements Runnable {
                 LOGGER.log(Level.SEVERE, "Exception caught while loading the port offset - ", ex);
                 throw new RuntimeException();
             }
-            serverProperties = null;
-            archiveBuffers = new DirectBuffer[maximumIndex + 1][];
-            try {
-                DataInputStream is = new DataInputStream(new FileInputStream(outDir + qLoadFile));
-                int opcode = 0;
-                while((opcode = is.read()) != 0) {
-                    if(opcode == 1) {
-                        int indexId = is.read();
-                        int archiveId = is.readShort();
-                        if(archiveBuffers[indexId] == null)
-                            archiveBuffers[indexId] = new DirectBuffer[fileIndexes[indexId].getSize()];
-                        DirectBuffer buffer = archiveBuffers[indexId][archiveId] = new DirectBuffer();
-                        buffer.put(fileIndexes[indexId].get(archiveId));
+            String engine = serverProperties.getProperty("ENGINE", "legacy");
+            if(!engine.equals("legacy") && !engine.equals("selector") && !engine.equals("thread")) {
+                LOGGER.log(Level.SEVERE, "Invalid server engine : {0}!", engine);
+                throw new RuntimeException();
+            }
+            int workers = getIntProperty(serverProperties, "WORKERS", Runtime.getRuntime().availableProcessors());
+            backlog = getIntProperty(serverProperties, "BACKLOG", 1024);
+            acceptLimit = getIntProperty(serverProperties, "ACCEPTLIMIT", 256);
+            handshakeLimit = getIntProperty(serverProperties, "HANDSHAKELIMIT", 64);
+            writeBudget = Math.max(getIntProperty(serverProperties, "WRITEBUDGET", 4096), Client.FRAMED_BLOCK_SIZE);
+            Scheduler.quantum = writeBudget / Client.FRAMED_BLOCK_SIZE;
+            Scheduler.cycleBudget = getIntProperty(serverProperties, "SCHEDULEBUDGET", 128);
+            Client.highWaterMark = Math.max(getIntProperty(serverProperties, "OUTBUFFERHIGH", 16384), writeBudget);
+            if(engine.equals("thread"))
+                Client.highWaterMark = writeBudget;
+            Client.lowWaterMark = Math.min(getIntProperty(serverProperties, "OUTBUFFERLOW", 4096), Client.highWaterMark - Client.FRAMED_BLOCK_SIZE);
+            Client.stallTimeout = getIntProperty(serverProperties, "STALLTIMEOUT", 10000);
+            Client.queueSize = getIntProperty(serverProperties, "QUEUESIZE", Client.QUEUE_SIZE);
+            if(Client.queueSize > Client.MAXIMUM_QUEUE_SIZE) {
+                LOGGER.log(Level.SEVERE, "QUEUESIZE property key must be at most {0,number,#}!", Client.MAXIMUM_QUEUE_SIZE);
+                throw new RuntimeException();
+            }
+            Scheduler.weights = getClassProperty(serverProperties, "SCHEDULEWEIGHTS", "16:4:1", 1);
+            Scheduler.burstTime = getIntProperty(serverProperties, "SHAPEBURST", 100);
+            int[] clientRates = getClassProperty(serverProperties, "CLIENTRATE", "0:0:0", 0);
+            int[] serverRates = getClassProperty(serverProperties, "SERVERRATE", "0:0:0", 0);
+            for(int i = 0; i < Scheduler.CLASS_COUNT; i++) {
+                Scheduler.clientRates[i] = clientRates[i] * 1024L;
+                if(serverRates[i] > 0)
+                    Scheduler.serverBuckets[i] = new TokenBucket(serverRates[i] * 1024L, Scheduler.getCapacity(serverRates[i] * 1024L), System.nanoTime());
+            }
+            if(sendfile && engine.equals("legacy")) {
+                LOGGER.log(Level.SEVERE, "SENDFILE requires the selector or thread engine!");
+                throw new RuntimeException();
+            }
+            if(sendfile && Boolean.parseBoolean(serverProperties.getProperty("LAZYLOAD", "false")))
+                LOGGER.log(Level.WARNING, "LAZYLOAD is ignored, the archives are transferred from the pack file.");
+            boolean[] pinnedIndexes = null;
+            if(!sendfile && Boolean.parseBoolean(serverProperties.getProperty("LAZYLOAD", "false"))) {
+                pinnedIndexes = new boolean[maximumIndex + 1];
+                try {
+                    String pinned = serverProperties.getProperty("CACHEPINNED", "");
+                    if(pinned.length() > 0) {
+                        String[] array = pinned.split("[:]");
+                        for(int i = 0; i < array.length; i++)
+                            pinnedIndexes[Integer.parseInt(array[i])] = true;
                     }
+                } catch(Exception ex) {
+                    LOGGER.log(Level.SEVERE, "Exception caught while loading the pinned index ids - ", ex);
+                    throw new RuntimeException();
                 }
-                is.close();
+            }
+            long cacheBudget = getIntProperty(serverProperties, "CACHEBUDGET", 64) * 1024L * 1024L;
+            boolean preframe = Boolean.parseBoolean(serverProperties.getProperty("PREFRAME", "false"));
+            boolean verifyLoad = Boolean.parseBoolean(serverProperties.getProperty("VERIFYLOAD", "false"));
+            String reloadFile = serverProperties.getProperty("RELOADFILE", "");
+            long metricsInterval = getIntProperty(serverProperties, "METRICSINTERVAL", 10) * 1000L;
+            int metricsPort = serverProperties.getProperty("METRICSPORT", "").trim().length() > 0 ? getIntProperty(serverProperties, "METRICSPORT", 0) : 0;
+            serverProperties = null;
+            SnapshotLoader snapshotLoader = new SnapshotLoader(cacheDir, mainIndexName, indexIds, indexNames, maximumIndex, mapIndexes, 
+                                                               outDir + qLoadFile, sendfile ? outDir + packFile : null, pinnedIndexes, cacheBudget, preframe, verifyLoad, loadThreads);
+            try {
+                archiveSnapshot = snapshotLoader.load();
             } catch(Exception ex) {
                 LOGGER.log(Level.SEVERE, "Exception caught while loading the LOADFILE - ", ex);
                 throw new RuntimeException();
             }
-            main = new Main(portOff);
+            metrics = new Metrics(metricsInterval, metricsPort);
+            if(reloadFile.length() > 0) {
+                archiveReloader = new ArchiveReloader(new File(reloadFile), snapshotLoader);
+                LOGGER.log(Level.INFO, "Reloading the archives whenever {0} is touched.", reloadFile);
+            }
+            if(engine.equals("selector"))
+                selectorServer = new SelectorServer(portOff, workers);
+            else if(engine.equals("thread"))
+                threadServer = new ThreadServer(portOff);
+            else
+                main = new Main(portOff);
         }
     }  
     
@@ -395,10 +880,14 @@ public final class Main implements Runnable {
      */
     private Main(int portOff) {
         try {
-            clientQueue = new LinkedList<Client>();
-            serverSocket = new ServerSocket();
-            serverSocket.setSoTimeout(5);
-            serverSocket.bind(new InetSocketAddress(43594 + portOff));
+            clientQueue = new ArrayDeque<Client>();
+            handshakeQueue = new ArrayDeque<Client>();
+            scheduler = new Scheduler();
+            timingWheel = new TimingWheel(TimingWheel.TICK_DURATION, TimingWheel.WHEEL_SIZE, System.currentTimeMillis());
+            metricsRecorder = metrics.createRecorder(false);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setSoTimeout(5);
+            serverChannel.bind(new InetSocketAddress(43594 + portOff), backlog);
             initialize();
         } catch(Exception ex) {
             LOGGER.log(Level.SEVERE, "Exception thrown while initializing : {0}", ex);
@@ -0,0 +1,205 @@
+package org.runetekk;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedFileIndex.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class MappedFileIndex extends FileIndex {
+
+    /**
+     * The amount of chunks in each mapped segment of the main file. Segments
+     * always end on a chunk boundary so a chunk never spans two segments.
+     */
+    private static final int SEGMENT_CHUNKS = 1 << 20;
+
+    /**
+     * The amount of bytes in each mapped segment of the main file.
+     */
+    private static final long SEGMENT_SIZE = 520L * SEGMENT_CHUNKS;
+
+    /**
+     * The mapped segments of the main file, shared between all the indexes.
+     */
+    private ByteBuffer[] mainSegments;
+
+    /**
+     * The length of the main file.
+     */
+    private long mainLength;
+
+    /**
+     * The mapped index file.
+     */
+    private ByteBuffer indexBuffer;
+
+    /**
+     * Maps the main file into read only segments that can be shared between
+     * all the indexes of a file system.
+     * @param mainFile The main file.
+     * @return The mapped segments.
+     * @throws IOException An I/O error occurred while mapping the file.
+     */
+    public static ByteBuffer[] map(RandomAccessFile mainFile) throws IOException {
+        FileChannel channel = mainFile.getChannel();
+        long length = channel.size();
+        ByteBuffer[] segments = new ByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for(int i = 0; i < segments.length; i++) {
+            long position = i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, length - position));
+        }
+        return segments;
+    }
+
+    /**
+     * Creates a new source byte array for an archive parsed from this
+     * {@link MappedFileIndex}. Only absolute reads are made on the mapped
+     * buffers so archives may be parsed from multiple threads at once.
+     * @param id The archive id.
+     * @return The created source byte array or null if the archive could not be parsed.
+     */
+    @Override
+    public byte[] get(int id) {
+        if(id < 0 || 6L * id + 6L > indexBuffer.capacity())
+            return null;
+        int entry = 6 * id;
+        int size = ((indexBuffer.get(entry) & 0xff) << 16) + ((indexBuffer.get(entry + 1) & 0xff) << 8) + (indexBuffer.get(entry + 2) & 0xff);
+        int block = ((indexBuffer.get(entry + 3) & 0xff) << 16) + ((indexBuffer.get(entry + 4) & 0xff) << 8) + (indexBuffer.get(entry + 5) & 0xff);
+        long chunks = mainLength / 520L;
+        if(block <= 0 || (long) block > chunks)
+            return null;
+        byte src[] = new byte[size];
+        int archiveOffset = 0;
+        for(int chunk = 0; archiveOffset < size; chunk++) {
+            if(block == 0)
+                return null;
+            int blockSize = size - archiveOffset;
+            if(blockSize > 512)
+                blockSize = 512;
+            if(520L * block + 8L + blockSize > mainLength)
+                return null;
+            ByteBuffer segment = mainSegments[block / SEGMENT_CHUNKS];
+            int off = 520 * (block % SEGMENT_CHUNKS);
+            int expectedArchive = ((segment.get(off) & 0xff) << 8) + (segment.get(off + 1) & 0xff);
+            int expectedChunk = ((segment.get(off + 2) & 0xff) << 8) + (segment.get(off + 3) & 0xff);
+            int nextBlock = ((segment.get(off + 4) & 0xff) << 16) + ((segment.get(off + 5) & 0xff) << 8) + (segment.get(off + 6) & 0xff);
+            if(expectedArchive != id || expectedChunk != chunk)
+                return null;
+            if((long) nextBlock > chunks)
+                return null;
+            segment.get(off + 8, src, archiveOffset, blockSize);
+            archiveOffset += blockSize;
+            block = nextBlock;
+        }
+        return src;
+    }
+
+    /**
+     * Checks if an archive can be parsed from this {@link MappedFileIndex}
+     * without parsing it. Only the index entry and the header of each chunk
+     * are read, the same checks are made as when the archive is parsed.
+     * @param id The archive id.
+     * @return If {@link #get(int)} would return the archive.
+     */
+    @Override
+    public boolean isValid(int id) {
+        if(id < 0 || 6L * id + 6L > indexBuffer.capacity())
+            return false;
+        int entry = 6 * id;
+        int size = ((indexBuffer.get(entry) & 0xff) << 16) + ((indexBuffer.get(entry + 1) & 0xff) << 8) + (indexBuffer.get(entry + 2) & 0xff);
+        int block = ((indexBuffer.get(entry + 3) & 0xff) << 16) + ((indexBuffer.get(entry + 4) & 0xff) << 8) + (indexBuffer.get(entry + 5) & 0xff);
+        long chunks = mainLength / 520L;
+        if(block <= 0 || (long) block > chunks)
+            return false;
+        int archiveOffset = 0;
+        for(int chunk = 0; archiveOffset < size; chunk++) {
+            if(block == 0)
+                return false;
+            int blockSize = size - archiveOffset;
+            if(blockSize > 512)
+                blockSize = 512;
+            if(520L * block + 8L + blockSize > mainLength)
+                return false;
+            ByteBuffer segment = mainSegments[block / SEGMENT_CHUNKS];
+            int off = 520 * (block % SEGMENT_CHUNKS);
+            int expectedArchive = ((segment.get(off) & 0xff) << 8) + (segment.get(off + 1) & 0xff);
+            int expectedChunk = ((segment.get(off + 2) & 0xff) << 8) + (segment.get(off + 3) & 0xff);
+            int nextBlock = ((segment.get(off + 4) & 0xff) << 16) + ((segment.get(off + 5) & 0xff) << 8) + (segment.get(off + 6) & 0xff);
+            if(expectedArchive != id || expectedChunk != chunk)
+                return false;
+            if((long) nextBlock > chunks)
+                return false;
+            archiveOffset += blockSize;
+            block = nextBlock;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the length of an archive from its entry in the index file without
+     * parsing the archive itself.
+     * @param id The archive id.
+     * @return The length or -1 if the archive has no entry.
+     */
+    @Override
+    public int getLength(int id) {
+        if(id < 0 || 6L * id + 6L > indexBuffer.capacity())
+            return -1;
+        int entry = 6 * id;
+        return ((indexBuffer.get(entry) & 0xff) << 16) + ((indexBuffer.get(entry + 1) & 0xff) << 8) + (indexBuffer.get(entry + 2) & 0xff);
+    }
+
+    /**
+     * Archives can not be written to a {@link MappedFileIndex}, the mapped 
+     * buffers are read only.
+     * @param src The source byte array.
+     * @param id The archive id.
+     * @param len The length of the source byte array.
+     * @return Always false.
+     */
+    @Override
+    public synchronized boolean put(byte src[], int id, int len) {
+        return false;
+    }
+
+    /**
+     * Gets the amount of archives in this {@link MappedFileIndex}.
+     * @return The amount of archives in this index.
+     */
+    @Override
+    public int getSize() {
+        return indexBuffer.capacity() / 6 + 1;
+    }
+
+    /**
+     * Destroys this {@link MappedFileIndex}.
+     * This {@link MappedFileIndex} will not be usable after it is destroyed.
+     */
+    @Override
+    public void destroy() {
+        super.destroy();
+        mainSegments = null;
+        indexBuffer = null;
+    }
+
+    /**
+     * Constructs a new {@link MappedFileIndex};
+     * @param indexId The index id.
+     * @param mainChannel The {@link RandomAccessFile} for the main index file.
+     * @param mainSegments The mapped segments of the main index file.
+     * @param indexChannel The {@link RandomAccessFile} for the index file.
+     * @throws IOException An I/O error occurred while mapping the index file.
+     */
+    public MappedFileIndex(int indexId, RandomAccessFile mainChannel, ByteBuffer[] mainSegments, RandomAccessFile indexChannel) throws IOException {
+        super(indexId, mainChannel, indexChannel);
+        this.mainSegments = mainSegments;
+        mainLength = mainChannel.length();
+        FileChannel channel = indexChannel.getChannel();
+        indexBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+    }
+}
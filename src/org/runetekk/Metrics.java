@@ -0,0 +1,456 @@
+package org.runetekk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ObjectName;
+
+/**
+ * Metrics.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class Metrics implements MetricsMXBean, Runnable {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+
+    /**
+     * The name that the metrics are registered with JMX under.
+     */
+    static final String OBJECT_NAME = "org.runetekk:type=Metrics";
+
+    /**
+     * The names of the priority classes.
+     */
+    private static final String[] CLASS_NAMES = { "urgent", "priority", "passive" };
+
+    /**
+     * The percentiles of the latencies that are reported.
+     */
+    private static final double[] PERCENTILES = { 50D, 90D, 99D, 99.9D };
+
+    /**
+     * The quantiles that the percentiles and the maximum are reported as.
+     */
+    private static final String[] QUANTILES = { "0.5", "0.9", "0.99", "0.999", "1" };
+
+    /**
+     * The local thread.
+     */
+    private Thread thread;
+
+    /**
+     * The local thread is currently paused.
+     */
+    private boolean isPaused;
+
+    /**
+     * The amount of milliseconds between each sample of the recorders.
+     */
+    private long interval;
+
+    /**
+     * The {@link MetricsRecorder}s of the serving threads.
+     */
+    private List<MetricsRecorder> recorders;
+
+    /**
+     * The server of the plain text endpoint, or null if it is disabled.
+     */
+    private HttpServer httpServer;
+
+    /**
+     * The time at which the recorders were last sampled.
+     */
+    private long sampleTime;
+
+    /**
+     * The amount of blocks served from each priority class when the recorders were
+     * last sampled.
+     */
+    private long[] servedBlocks;
+
+    /**
+     * The amount of bytes served from each priority class when the recorders were
+     * last sampled.
+     */
+    private long[] servedBytes;
+
+    /**
+     * The amount of blocks served per second from each priority class over the
+     * last interval.
+     */
+    private double[] blockRates;
+
+    /**
+     * The amount of bytes served per second from each priority class over the
+     * last interval.
+     */
+    private double[] byteRates;
+
+    /**
+     * The first block latencies of each priority class recorded when the recorders
+     * were last sampled.
+     */
+    private Histogram[] firstBlockTotals;
+
+    /**
+     * The completion latencies of each priority class recorded when the recorders
+     * were last sampled.
+     */
+    private Histogram[] completionTotals;
+
+    /**
+     * The first block latencies of each priority class recorded over the last interval.
+     */
+    private Histogram[] firstBlockLatencies;
+
+    /**
+     * The completion latencies of each priority class recorded over the last interval.
+     */
+    private Histogram[] completionLatencies;
+
+    /**
+     * The {@link Histogram} that the recorders are merged into while sampling.
+     */
+    private Histogram sampleHistogram;
+
+    @Override
+    public void run() {
+        for(;;) {
+            synchronized(this) {
+                if(isPaused)
+                    break;
+                try {
+                    wait(interval);
+                } catch(InterruptedException ex) {
+                    break;
+                }
+                if(isPaused)
+                    break;
+            }
+            sample();
+        }
+    }
+
+    /**
+     * Creates a {@link MetricsRecorder} for a serving thread. The recorder is read
+     * for as long as the server runs.
+     * @param shared If the recorder is shared by several serving threads.
+     * @return The recorder.
+     */
+    MetricsRecorder createRecorder(boolean shared) {
+        MetricsRecorder recorder = new MetricsRecorder(shared);
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    /**
+     * Samples the recorders, computing the rates and latencies over the interval
+     * since they were last sampled.
+     */
+    private synchronized void sample() {
+        long currentTime = System.currentTimeMillis();
+        long elapsed = Math.max(1L, currentTime - sampleTime);
+        sampleTime = currentTime;
+        for(int priorityClass = 0; priorityClass < Scheduler.CLASS_COUNT; priorityClass++) {
+            long blocks = 0L;
+            long bytes = 0L;
+            for(MetricsRecorder recorder : recorders) {
+                blocks += recorder.servedBlocks[priorityClass];
+                bytes += recorder.servedBytes[priorityClass];
+            }
+            blockRates[priorityClass] = (blocks - servedBlocks[priorityClass]) * 1000D / elapsed;
+            byteRates[priorityClass] = (bytes - servedBytes[priorityClass]) * 1000D / elapsed;
+            servedBlocks[priorityClass] = blocks;
+            servedBytes[priorityClass] = bytes;
+            sampleHistogram.reset();
+            for(MetricsRecorder recorder : recorders)
+                sampleHistogram.add(recorder.firstBlockLatencies[priorityClass]);
+            update(firstBlockTotals[priorityClass], firstBlockLatencies[priorityClass]);
+            sampleHistogram.reset();
+            for(MetricsRecorder recorder : recorders)
+                sampleHistogram.add(recorder.completionLatencies[priorityClass]);
+            update(completionTotals[priorityClass], completionLatencies[priorityClass]);
+        }
+    }
+
+    /**
+     * Puts the values recorded since the last sample into a histogram and
+     * replaces the totals of the last sample with those in the sample histogram.
+     * @param totals The totals of the last sample.
+     * @param latencies The histogram to put the values of the interval into.
+     */
+    private void update(Histogram totals, Histogram latencies) {
+        latencies.reset();
+        latencies.add(sampleHistogram);
+        latencies.subtract(totals);
+        totals.reset();
+        totals.add(sampleHistogram);
+    }
+
+    /**
+     * Gets the percentiles of the latencies of each priority class.
+     * @param latencies The latencies indexed by priority class.
+     * @return The percentiles followed by the maximum of each priority class.
+     */
+    private static long[] getPercentiles(Histogram[] latencies) {
+        long[] values = new long[Scheduler.CLASS_COUNT * (PERCENTILES.length + 1)];
+        for(int priorityClass = 0; priorityClass < Scheduler.CLASS_COUNT; priorityClass++) {
+            int offset = priorityClass * (PERCENTILES.length + 1);
+            for(int i = 0; i < PERCENTILES.length; i++)
+                values[offset + i] = latencies[priorityClass].getPercentile(PERCENTILES[i]);
+            values[offset + PERCENTILES.length] = latencies[priorityClass].getMaximum();
+        }
+        return values;
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return Main.connectedClients.get();
+    }
+
+    @Override
+    public int getHandshakingClients() {
+        return Main.handshakingClients.get();
+    }
+
+    @Override
+    public int getStalledClients() {
+        return Main.stalledClients.get();
+    }
+
+    @Override
+    public long[] getQueuedRequests() {
+        long[] queued = new long[Scheduler.CLASS_COUNT];
+        for(MetricsRecorder recorder : recorders) {
+            for(int i = 0; i < Scheduler.CLASS_COUNT; i++)
+                queued[i] += recorder.queuedRequests[i];
+        }
+        return queued;
+    }
+
+    @Override
+    public synchronized long[] getServedBlocks() {
+        return servedBlocks.clone();
+    }
+
+    @Override
+    public synchronized long[] getServedBytes() {
+        return servedBytes.clone();
+    }
+
+    @Override
+    public synchronized double[] getBlocksPerSecond() {
+        return blockRates.clone();
+    }
+
+    @Override
+    public synchronized double[] getBytesPerSecond() {
+        return byteRates.clone();
+    }
+
+    @Override
+    public synchronized long[] getFirstBlockLatencies() {
+        return getPercentiles(firstBlockLatencies);
+    }
+
+    @Override
+    public synchronized long[] getCompletionLatencies() {
+        return getPercentiles(completionLatencies);
+    }
+
+    @Override
+    public long[] getCacheHits() {
+        ArchiveSnapshot snapshot = Main.acquireSnapshot();
+        try {
+            ArchiveCache archiveCache = snapshot.getArchiveCache();
+            return archiveCache == null ? new long[0] : archiveCache.getHits();
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    @Override
+    public long[] getCacheMisses() {
+        ArchiveSnapshot snapshot = Main.acquireSnapshot();
+        try {
+            ArchiveCache archiveCache = snapshot.getArchiveCache();
+            return archiveCache == null ? new long[0] : archiveCache.getMisses();
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    /**
+     * Appends a line for each priority class to the report.
+     * @param report The report.
+     * @param name The name of the metric.
+     * @param values The values indexed by priority class.
+     */
+    private static void appendClasses(StringBuilder report, String name, long[] values) {
+        for(int i = 0; i < values.length; i++)
+            report.append(name).append("{priority=\"").append(CLASS_NAMES[i]).append("\"} ").append(values[i]).append('\n');
+    }
+
+    /**
+     * Appends the percentiles of each priority class to the report.
+     * @param report The report.
+     * @param name The name of the metric.
+     * @param values The percentiles as returned by {@link #getPercentiles}.
+     */
+    private static void appendPercentiles(StringBuilder report, String name, long[] values) {
+        for(int priorityClass = 0; priorityClass < Scheduler.CLASS_COUNT; priorityClass++) {
+            int offset = priorityClass * (PERCENTILES.length + 1);
+            for(int i = 0; i <= PERCENTILES.length; i++) {
+                report.append(name).append("{priority=\"").append(CLASS_NAMES[priorityClass]).append("\",quantile=\"");
+                report.append(QUANTILES[i]).append("\"} ").append(values[offset + i]).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Gets the metrics as plain text, one metric per line followed by its value.
+     * @return The report.
+     */
+    String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("ondemand_connected_clients ").append(getConnectedClients()).append('\n');
+        report.append("ondemand_handshaking_clients ").append(getHandshakingClients()).append('\n');
+        report.append("ondemand_stalled_clients ").append(getStalledClients()).append('\n');
+        appendClasses(report, "ondemand_queued_requests", getQueuedRequests());
+        appendClasses(report, "ondemand_served_blocks_total", getServedBlocks());
+        appendClasses(report, "ondemand_served_bytes_total", getServedBytes());
+        double[] blockRates = getBlocksPerSecond();
+        double[] byteRates = getBytesPerSecond();
+        for(int i = 0; i < Scheduler.CLASS_COUNT; i++) {
+            report.append("ondemand_blocks_per_second{priority=\"").append(CLASS_NAMES[i]).append("\"} ").append(String.format("%.1f", blockRates[i])).append('\n');
+            report.append("ondemand_bytes_per_second{priority=\"").append(CLASS_NAMES[i]).append("\"} ").append(String.format("%.1f", byteRates[i])).append('\n');
+        }
+        appendPercentiles(report, "ondemand_first_block_latency_microseconds", getFirstBlockLatencies());
+        appendPercentiles(report, "ondemand_completion_latency_microseconds", getCompletionLatencies());
+        long[] hits = getCacheHits();
+        long[] misses = getCacheMisses();
+        for(int i = 0; i < hits.length; i++) {
+            report.append("ondemand_cache_hits_total{index=\"").append(i).append("\"} ").append(hits[i]).append('\n');
+            report.append("ondemand_cache_misses_total{index=\"").append(i).append("\"} ").append(misses[i]).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     */
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch(Exception ex) {
+            LOGGER.log(Level.WARNING, "Failed to register the metrics with JMX - ", ex);
+        }
+    }
+
+    /**
+     * Starts the plain text endpoint, which only accepts local connections.
+     * @param port The port of the endpoint.
+     * @throws IOException An I/O error occurred while binding the endpoint.
+     */
+    private void startEndpoint(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] response = getReport().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream os = exchange.getResponseBody();
+                try {
+                    os.write(response);
+                } finally {
+                    os.close();
+                }
+            }
+        });
+        httpServer.start();
+        LOGGER.log(Level.INFO, "Serving the metrics on http://{0}:{1,number,#}/", new Object[] { InetAddress.getLoopbackAddress().getHostAddress(), port });
+    }
+
+    /**
+     * Initializes the local thread.
+     */
+    private void initialize() {
+        thread = new Thread(this, "Metrics");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Destroys the metrics, stopping the sampling and the plain text endpoint.
+     */
+    public void destroy() {
+        if(!isPaused)  {
+            if(thread != null) {
+                synchronized(this) {
+                    isPaused = true;
+                    notifyAll();
+                }
+                try {
+                    thread.join();
+                } catch(InterruptedException ex) {
+                }
+            }
+            thread = null;
+            if(httpServer != null)
+                httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    /**
+     * Constructs a new {@link Metrics}; The metrics are registered with JMX and served
+     * as plain text on a local port.
+     * @param interval The amount of milliseconds between each sample of the recorders.
+     * @param port The port of the plain text endpoint, or zero to disable it.
+     */
+    public Metrics(long interval, int port) {
+        this.interval = interval;
+        recorders = new CopyOnWriteArrayList<MetricsRecorder>();
+        sampleTime = System.currentTimeMillis();
+        servedBlocks = new long[Scheduler.CLASS_COUNT];
+        servedBytes = new long[Scheduler.CLASS_COUNT];
+        blockRates = new double[Scheduler.CLASS_COUNT];
+        byteRates = new double[Scheduler.CLASS_COUNT];
+        firstBlockTotals = new Histogram[Scheduler.CLASS_COUNT];
+        completionTotals = new Histogram[Scheduler.CLASS_COUNT];
+        firstBlockLatencies = new Histogram[Scheduler.CLASS_COUNT];
+        completionLatencies = new Histogram[Scheduler.CLASS_COUNT];
+        for(int i = 0; i < Scheduler.CLASS_COUNT; i++) {
+            firstBlockTotals[i] = new Histogram();
+            completionTotals[i] = new Histogram();
+            firstBlockLatencies[i] = new Histogram();
+            completionLatencies[i] = new Histogram();
+        }
+        sampleHistogram = new Histogram();
+        register();
+        if(port > 0) {
+            try {
+                startEndpoint(port);
+            } catch(IOException ioex) {
+                LOGGER.log(Level.WARNING, "Failed to start the metrics endpoint - ", ioex);
+            }
+        }
+        initialize();
+    }
+}
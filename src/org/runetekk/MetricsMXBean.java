@@ -0,0 +1,87 @@
+package org.runetekk;
+
+/**
+ * MetricsMXBean.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Gets the amount of connected clients.
+     * @return The amount of clients.
+     */
+    int getConnectedClients();
+
+    /**
+     * Gets the amount of connected clients whose handshake was not handled yet.
+     * @return The amount of clients.
+     */
+    int getHandshakingClients();
+
+    /**
+     * Gets the amount of stalled clients.
+     * @return The amount of clients.
+     */
+    int getStalledClients();
+
+    /**
+     * Gets the amount of requests queued across all the clients.
+     * @return The amounts indexed by priority class.
+     */
+    long[] getQueuedRequests();
+
+    /**
+     * Gets the amount of blocks served since the server started.
+     * @return The amounts indexed by priority class.
+     */
+    long[] getServedBlocks();
+
+    /**
+     * Gets the amount of bytes served since the server started.
+     * @return The amounts indexed by priority class.
+     */
+    long[] getServedBytes();
+
+    /**
+     * Gets the amount of blocks served per second over the last interval.
+     * @return The rates indexed by priority class.
+     */
+    double[] getBlocksPerSecond();
+
+    /**
+     * Gets the amount of bytes served per second over the last interval.
+     * @return The rates indexed by priority class.
+     */
+    double[] getBytesPerSecond();
+
+    /**
+     * Gets the percentiles of the microseconds from queueing a request to framing
+     * its first block over the last interval.
+     * @return The 50th, 90th, 99th and 99.9th percentile and the maximum of the
+     *         urgent, priority and passive class in that order.
+     */
+    long[] getFirstBlockLatencies();
+
+    /**
+     * Gets the percentiles of the microseconds from queueing a request to framing
+     * its last block over the last interval.
+     * @return The 50th, 90th, 99th and 99.9th percentile and the maximum of the
+     *         urgent, priority and passive class in that order.
+     */
+    long[] getCompletionLatencies();
+
+    /**
+     * Gets the amount of requests whose archive was resident in the lazily loaded
+     * archives since the archives were last loaded.
+     * @return The amounts indexed by index id, empty if every archive is preloaded.
+     */
+    long[] getCacheHits();
+
+    /**
+     * Gets the amount of requests whose archive was loaded from the disk since the
+     * archives were last loaded.
+     * @return The amounts indexed by index id, empty if every archive is preloaded.
+     */
+    long[] getCacheMisses();
+}
@@ -0,0 +1,122 @@
+package org.runetekk;
+
+/**
+ * MetricsRecorder.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class MetricsRecorder {
+
+    /**
+     * The amount of requests currently queued in each priority class.
+     */
+    long[] queuedRequests;
+
+    /**
+     * The amount of blocks served from each priority class.
+     */
+    long[] servedBlocks;
+
+    /**
+     * The amount of bytes served from each priority class.
+     */
+    long[] servedBytes;
+
+    /**
+     * The {@link Histogram}s of the microseconds from queueing a request to framing
+     * its first block, for each priority class.
+     */
+    Histogram[] firstBlockLatencies;
+
+    /**
+     * The {@link Histogram}s of the microseconds from queueing a request to framing
+     * its last block, for each priority class.
+     */
+    Histogram[] completionLatencies;
+
+    /**
+     * If the recorder is shared by several serving threads, which then record into
+     * it under its lock.
+     */
+    private final boolean shared;
+
+    /**
+     * Records requests that were queued or removed from a queue.
+     * @param priorityClass The priority class of the queue.
+     * @param amount The amount of requests, negative if they were removed.
+     */
+    void recordQueued(int priorityClass, int amount) {
+        if(shared) {
+            synchronized(this) {
+                queuedRequests[priorityClass] += amount;
+            }
+        } else
+            queuedRequests[priorityClass] += amount;
+    }
+
+    /**
+     * Records blocks that were served.
+     * @param priorityClass The priority class that the blocks were served from.
+     * @param blocks The amount of blocks.
+     * @param bytes The amount of bytes.
+     */
+    void recordServed(int priorityClass, int blocks, int bytes) {
+        if(shared) {
+            synchronized(this) {
+                servedBlocks[priorityClass] += blocks;
+                servedBytes[priorityClass] += bytes;
+            }
+        } else {
+            servedBlocks[priorityClass] += blocks;
+            servedBytes[priorityClass] += bytes;
+        }
+    }
+
+    /**
+     * Records the time a request waited for its first block.
+     * @param priorityClass The priority class of the request.
+     * @param nanos The amount of nanoseconds.
+     */
+    void recordFirstBlock(int priorityClass, long nanos) {
+        if(shared) {
+            synchronized(this) {
+                firstBlockLatencies[priorityClass].record(nanos / 1000L);
+            }
+        } else
+            firstBlockLatencies[priorityClass].record(nanos / 1000L);
+    }
+
+    /**
+     * Records the time a request waited for its last block.
+     * @param priorityClass The priority class of the request.
+     * @param nanos The amount of nanoseconds.
+     */
+    void recordCompletion(int priorityClass, long nanos) {
+        if(shared) {
+            synchronized(this) {
+                completionLatencies[priorityClass].record(nanos / 1000L);
+            }
+        } else
+            completionLatencies[priorityClass].record(nanos / 1000L);
+    }
+
+    /**
+     * Constructs a new {@link MetricsRecorder}; A recorder that belongs to a single
+     * serving thread is written without synchronization, a shared recorder takes its
+     * lock only for the duration of each record. Recording never allocates. The
+     * {@link Metrics} read it without a lock, so what they read may be slightly behind.
+     * @param shared If the recorder is shared by several serving threads.
+     */
+    public MetricsRecorder(boolean shared) {
+        this.shared = shared;
+        queuedRequests = new long[Scheduler.CLASS_COUNT];
+        servedBlocks = new long[Scheduler.CLASS_COUNT];
+        servedBytes = new long[Scheduler.CLASS_COUNT];
+        firstBlockLatencies = new Histogram[Scheduler.CLASS_COUNT];
+        completionLatencies = new Histogram[Scheduler.CLASS_COUNT];
+        for(int i = 0; i < Scheduler.CLASS_COUNT; i++) {
+            firstBlockLatencies[i] = new Histogram();
+            completionLatencies[i] = new Histogram();
+        }
+    }
+}
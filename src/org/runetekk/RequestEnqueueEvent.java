@@ -0,0 +1,47 @@
+package org.runetekk;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * RequestEnqueueEvent.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+@Name("org.runetekk.RequestEnqueue")
+@Label("Request Enqueue")
+@Description("A request of a client was queued, disabled by default as every request emits one")
+@Category("Ondemand")
+@Enabled(false)
+@StackTrace(false)
+public final class RequestEnqueueEvent extends Event {
+
+    /**
+     * The id of the client.
+     */
+    @Label("Client Id")
+    long clientId;
+
+    /**
+     * The id of the index of the requested archive.
+     */
+    @Label("Index Id")
+    int indexId;
+
+    /**
+     * The id of the requested archive.
+     */
+    @Label("Archive Id")
+    int archiveId;
+
+    /**
+     * The priority of the request, 2 for urgent, 1 for priority and 0 for passive.
+     */
+    @Label("Priority")
+    int priority;
+}
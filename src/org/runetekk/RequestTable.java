@@ -0,0 +1,99 @@
+package org.runetekk;
+
+/**
+ * RequestTable.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class RequestTable {
+
+    /**
+     * The entries of this table, the index id and archive id of a request in the
+     * upper 24 bits and its priority class plus one in the lowest byte, or zero
+     * if the slot is empty. Collisions are resolved by linear probing.
+     */
+    private int[] entries;
+
+    /**
+     * The amount of bits the hashed keys are shifted by to get their slot.
+     */
+    private int shift;
+
+    /**
+     * Gets the slot that a key is hashed to.
+     * @param key The index id and archive id of a request.
+     * @return The slot.
+     */
+    private int getSlot(int key) {
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * Gets the slot of the entry of a request.
+     * @param hash The request hash.
+     * @return The slot, or -1 if the archive of the request is not in this table.
+     */
+    private int find(int hash) {
+        int key = hash >>> 8;
+        for(int slot = getSlot(key);; slot = (slot + 1) & (entries.length - 1)) {
+            if(entries[slot] == 0)
+                return -1;
+            if(entries[slot] >>> 8 == key)
+                return slot;
+        }
+    }
+
+    /**
+     * Gets the priority class that the archive of a request is queued in.
+     * @param hash The request hash.
+     * @return The priority class, or -1 if the archive is not queued.
+     */
+    int get(int hash) {
+        int slot = find(hash);
+        return slot == -1 ? -1 : (entries[slot] & 0xFF) - 1;
+    }
+
+    /**
+     * Sets the priority class that the archive of a request is queued in.
+     * @param hash The request hash.
+     * @param priorityClass The priority class.
+     */
+    void put(int hash, int priorityClass) {
+        int key = hash >>> 8;
+        int slot = getSlot(key);
+        while(entries[slot] != 0 && entries[slot] >>> 8 != key)
+            slot = (slot + 1) & (entries.length - 1);
+        entries[slot] = (key << 8) | (priorityClass + 1);
+    }
+
+    /**
+     * Removes the archive of a request from this table. The entries after it
+     * are shifted back so that no entry is left behind an empty slot.
+     * @param hash The request hash.
+     */
+    void remove(int hash) {
+        int hole = find(hash);
+        if(hole == -1)
+            return;
+        int mask = entries.length - 1;
+        for(int slot = (hole + 1) & mask; entries[slot] != 0; slot = (slot + 1) & mask) {
+            int home = getSlot(entries[slot] >>> 8);
+            if(((slot - home) & mask) >= ((slot - hole) & mask)) {
+                entries[hole] = entries[slot];
+                hole = slot;
+            }
+        }
+        entries[hole] = 0;
+    }
+
+    /**
+     * Constructs a new {@link RequestTable}; The table is sized to be at most half
+     * full so that the probes stay short.
+     * @param capacity The maximum amount of archives the table holds at once.
+     */
+    public RequestTable(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        entries = new int[size];
+        shift = 32 - Integer.numberOfTrailingZeros(size);
+    }
+}
@@ -0,0 +1,300 @@
+package org.runetekk;
+
+import java.util.ArrayDeque;
+
+/**
+ * Scheduler.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class Scheduler {
+
+    /**
+     * The amount of priority classes.
+     */
+    static final int CLASS_COUNT = 3;
+
+    /**
+     * The weights of the priority classes, the amount of write budgets each class
+     * may send in one round when every class has work.
+     */
+    static int[] weights = { 16, 4, 1 };
+
+    /**
+     * The amount of blocks in a write budget, the unit of the weights.
+     */
+    static int quantum = 1;
+
+    /**
+     * The maximum amount of blocks that are served in one cycle before the
+     * serving thread looks for new requests again.
+     */
+    static int cycleBudget = 128;
+
+    /**
+     * The amount of bytes per second each client may be sent from each priority
+     * class, zero if the class is not limited.
+     */
+    static long[] clientRates = new long[CLASS_COUNT];
+
+    /**
+     * The {@link TokenBucket}s that limit the bytes sent from each priority class
+     * by the whole server, shared between all the serving threads. A class that is
+     * not limited has no bucket.
+     */
+    static TokenBucket[] serverBuckets = new TokenBucket[CLASS_COUNT];
+
+    /**
+     * The amount of milliseconds of traffic a {@link TokenBucket} holds, the
+     * largest burst it allows.
+     */
+    static long burstTime = 100L;
+
+    /**
+     * The clients that have requests of each priority class, in the order
+     * they are served in.
+     */
+    private ArrayDeque<Client>[] readyClients;
+
+    /**
+     * The clients of each priority class that are throttled by their own
+     * {@link TokenBucket} and wait to be added back to the rotation.
+     */
+    private ArrayDeque<Client>[] deferredClients;
+
+    /**
+     * There are deferred clients.
+     */
+    private boolean hasDeferred;
+
+    /**
+     * The time in nanoseconds at which the deferred clients are added back to
+     * the rotation.
+     */
+    private long wakeTime;
+
+    /**
+     * The time in nanoseconds until which each priority class is throttled by
+     * the {@link TokenBucket} of the server.
+     */
+    private long[] blockedUntil;
+
+    /**
+     * The amount of blocks each priority class may still send in the current round.
+     */
+    private int[] deficits;
+
+    /**
+     * The amount of bytes taken out of the bucket of the server for the client that
+     * was last allowed blocks, which are settled once the client is charged.
+     */
+    private long reservedBytes;
+
+    /**
+     * Gets the capacity of a {@link TokenBucket}.
+     * @param rate The amount of bytes per second of the bucket.
+     * @return The capacity, never less than the write budget.
+     */
+    static long getCapacity(long rate) {
+        return Math.max(Main.writeBudget, rate * burstTime / 1000L);
+    }
+
+    /**
+     * Adds a client to the rotation of every priority class it has requests of
+     * and is not already in the rotation of.
+     * @param client The client to add.
+     */
+    void add(Client client) {
+        for(int priorityClass = 0; priorityClass < CLASS_COUNT; priorityClass++) {
+            int bit = 1 << priorityClass;
+            if((client.scheduledClasses & bit) == 0 && client.hasRequests(priorityClass)) {
+                client.scheduledClasses |= bit;
+                readyClients[priorityClass].addLast(client);
+            }
+        }
+    }
+
+    /**
+     * Adds the deferred clients back to the rotation once their wait is over.
+     * The clients that are still throttled are simply deferred again.
+     * @param now The current time in nanoseconds.
+     */
+    private void wake(long now) {
+        if(!hasDeferred || now - wakeTime < 0L)
+            return;
+        hasDeferred = false;
+        for(int priorityClass = 0; priorityClass < CLASS_COUNT; priorityClass++) {
+            Client client;
+            while((client = deferredClients[priorityClass].poll()) != null)
+                readyClients[priorityClass].addLast(client);
+        }
+    }
+
+    /**
+     * Gets if a priority class has clients to serve and is not throttled.
+     * @param priorityClass The priority class.
+     * @param now The current time in nanoseconds.
+     * @return If the class is ready to be served.
+     */
+    private boolean isReady(int priorityClass, long now) {
+        return !readyClients[priorityClass].isEmpty() && now - blockedUntil[priorityClass] >= 0L;
+    }
+
+    /**
+     * Gets the amount of time until a client can be served.
+     * @param now The current time in nanoseconds.
+     * @return The amount of nanoseconds, zero if a client can be served now or -1
+     *         if no client has requests left to be served.
+     */
+    long getDelay(long now) {
+        wake(now);
+        long delay = -1L;
+        for(int priorityClass = 0; priorityClass < CLASS_COUNT; priorityClass++) {
+            if(readyClients[priorityClass].isEmpty())
+                continue;
+            long blocked = blockedUntil[priorityClass] - now;
+            if(blocked <= 0L)
+                return 0L;
+            if(delay < 0L || blocked < delay)
+                delay = blocked;
+        }
+        if(hasDeferred && (delay < 0L || wakeTime - now < delay))
+            delay = Math.max(1L, wakeTime - now);
+        return delay;
+    }
+
+    /**
+     * Gets the priority class that the next blocks should be served from. The
+     * classes are served by deficit round robin; the urgent class is served first
+     * in every round but the lower classes still send their weight in every round,
+     * so they are never starved. A class without work or that is throttled does
+     * not hold back the others.
+     * @param now The current time in nanoseconds.
+     * @return The priority class or -1 if there are no clients to serve.
+     */
+    int nextClass(long now) {
+        wake(now);
+        boolean ready = false;
+        for(int priorityClass = 0; priorityClass < CLASS_COUNT; priorityClass++)
+            ready |= isReady(priorityClass, now);
+        if(!ready)
+            return -1;
+        for(;;) {
+            for(int priorityClass = 0; priorityClass < CLASS_COUNT; priorityClass++) {
+                if(deficits[priorityClass] > 0 && isReady(priorityClass, now))
+                    return priorityClass;
+            }
+            for(int priorityClass = 0; priorityClass < CLASS_COUNT; priorityClass++) {
+                if(readyClients[priorityClass].isEmpty())
+                    deficits[priorityClass] = 0;
+                else if(isReady(priorityClass, now))
+                    deficits[priorityClass] += weights[priorityClass] * quantum;
+            }
+        }
+    }
+
+    /**
+     * Removes the client at the head of the rotation of a priority class. The
+     * client is expected to be added again once it has been served.
+     * @param priorityClass The priority class.
+     * @return The client, or null if the rotation is empty.
+     */
+    Client poll(int priorityClass) {
+        Client client = readyClients[priorityClass].poll();
+        if(client != null)
+            client.scheduledClasses &= ~(1 << priorityClass);
+        return client;
+    }
+
+    /**
+     * Gets the amount of blocks a client may be sent from a priority class. The
+     * amount is bound by the deficit of the class and by the {@link TokenBucket}s
+     * of the client and the server. If the client is throttled by its own bucket
+     * it is deferred until the bucket holds a write budget again, if the class is
+     * throttled by the bucket of the server the client is put back at the head of the
+     * rotation and the class is not served until the bucket holds a write budget again.
+     * Waiting for a whole write budget keeps the throttled clients from being woken
+     * for every single block. The bytes allowed by the bucket of the server, which is
+     * shared by every serving thread, are taken out of it at once and the bytes that
+     * were not served are put back once the client is charged.
+     * @param client The client that was taken from the rotation.
+     * @param priorityClass The priority class.
+     * @param limit The maximum amount of blocks besides the deficit of the class.
+     * @param now The current time in nanoseconds.
+     * @return The amount of blocks, zero if the client or the class is throttled.
+     */
+    int allow(Client client, int priorityClass, int limit, long now) {
+        long bytes = Math.min(limit, deficits[priorityClass]) * (long) Client.FRAMED_BLOCK_SIZE;
+        reservedBytes = 0L;
+        TokenBucket bucket;
+        if(clientRates[priorityClass] > 0L) {
+            if(client.buckets[priorityClass] == null)
+                client.buckets[priorityClass] = new TokenBucket(clientRates[priorityClass], getCapacity(clientRates[priorityClass]), now);
+            bucket = client.buckets[priorityClass];
+            long available = bucket.getAvailable(now);
+            if(available < Client.FRAMED_BLOCK_SIZE) {
+                long wake = now + bucket.getDelay(now, Main.writeBudget);
+                if(!hasDeferred || wake - wakeTime < 0L)
+                    wakeTime = wake;
+                hasDeferred = true;
+                client.scheduledClasses |= 1 << priorityClass;
+                deferredClients[priorityClass].addLast(client);
+                return 0;
+            }
+            bytes = Math.min(bytes, available);
+        }
+        bucket = serverBuckets[priorityClass];
+        if(bucket != null) {
+            reservedBytes = bucket.tryConsume(now, bytes, Client.FRAMED_BLOCK_SIZE);
+            if(reservedBytes == 0L) {
+                blockedUntil[priorityClass] = now + bucket.getDelay(now, Main.writeBudget);
+                client.scheduledClasses |= 1 << priorityClass;
+                readyClients[priorityClass].addFirst(client);
+                return 0;
+            }
+            bytes = reservedBytes;
+        }
+        return (int) (bytes / Client.FRAMED_BLOCK_SIZE);
+    }
+
+    /**
+     * Charges a priority class, the client and the server for the blocks that were
+     * served from the class. Every client that was allowed blocks has to be charged,
+     * even if none were served, so that the bytes taken out of the bucket of the
+     * server but not served are put back.
+     * @param client The client that was served.
+     * @param priorityClass The priority class.
+     * @param blocks The amount of blocks served.
+     * @param bytes The amount of bytes served.
+     */
+    void charge(Client client, int priorityClass, int blocks, int bytes) {
+        deficits[priorityClass] -= blocks;
+        if(serverBuckets[priorityClass] != null) {
+            if(reservedBytes > bytes)
+                serverBuckets[priorityClass].refund(reservedBytes - bytes);
+            else if(bytes > reservedBytes)
+                serverBuckets[priorityClass].consume((int) (bytes - reservedBytes));
+        }
+        reservedBytes = 0L;
+        if(client.buckets[priorityClass] != null)
+            client.buckets[priorityClass].consume(bytes);
+    }
+
+    /**
+     * Constructs a new {@link Scheduler};
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public Scheduler() {
+        readyClients = new ArrayDeque[CLASS_COUNT];
+        deferredClients = new ArrayDeque[CLASS_COUNT];
+        for(int priorityClass = 0; priorityClass < CLASS_COUNT; priorityClass++) {
+            readyClients[priorityClass] = new ArrayDeque<Client>();
+            deferredClients[priorityClass] = new ArrayDeque<Client>();
+        }
+        long now = System.nanoTime();
+        blockedUntil = new long[CLASS_COUNT];
+        for(int priorityClass = 0; priorityClass < CLASS_COUNT; priorityClass++)
+            blockedUntil[priorityClass] = now;
+        deficits = new int[CLASS_COUNT];
+    }
+}
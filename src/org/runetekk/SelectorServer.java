@@ -0,0 +1,160 @@
+package org.runetekk;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SelectorServer.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class SelectorServer implements Runnable {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(SelectorServer.class.getName());
+
+    /**
+     * The local thread.
+     */
+    private Thread thread;
+
+    /**
+     * The local thread is currently paused.
+     */
+    private boolean isPaused;
+
+    /**
+     * The {@link Selector} that the server channel is registered with.
+     */
+    private Selector selector;
+
+    /**
+     * The {@link ServerSocketChannel} to accept connections from.
+     */
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * The {@link EventLoop}s that the accepted clients are handed to.
+     */
+    private EventLoop[] eventLoops;
+
+    @Override
+    public void run() {
+        for(;;) {
+            synchronized(this) {
+                if(isPaused)
+                    break;
+            }
+            try {
+                selector.select();
+            } catch(IOException ioex) {
+                LOGGER.log(Level.SEVERE, "Exception thrown while selecting - ", ioex);
+                break;
+            }
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while(iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                if(key.isValid() && key.isAcceptable())
+                    accept();
+            }
+        }
+        for(int i = 0; i < eventLoops.length; i++)
+            eventLoops[i].destroy();
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch(IOException ioex) {}
+    }
+
+    /**
+     * Accepts all the pending connections, up to the accept limit, and hands each
+     * of them to the {@link EventLoop} that currently owns the least clients. Any
+     * connections left over are accepted in the next cycle.
+     */
+    private void accept() {
+        for(int i = 0; i < Main.acceptLimit; i++) {
+            SocketChannel channel = null;
+            try {
+                channel = serverChannel.accept();
+                if(channel == null)
+                    return;
+                EventLoop eventLoop = eventLoops[0];
+                for(int j = 1; j < eventLoops.length; j++) {
+                    if(eventLoops[j].getClientCount() < eventLoop.getClientCount())
+                        eventLoop = eventLoops[j];
+                }
+                eventLoop.handOff(channel);
+            } catch(IOException ioex) {
+                LOGGER.log(Level.WARNING, "Exception thrown while accepting a client - ", ioex);
+                if(channel != null) {
+                    try {
+                        channel.close();
+                    } catch(IOException ex) {}
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Initializes the local thread.
+     */
+    private void initialize() {
+        for(int i = 0; i < eventLoops.length; i++)
+            eventLoops[i].initialize();
+        thread = new Thread(this, "Acceptor");
+        thread.start();
+    }
+
+    /**
+     * Destroys this local application.
+     */
+    public void destroy() {
+        if(!isPaused)  {
+            if(thread != null) {
+                synchronized(this) {
+                    isPaused = true;
+                    notifyAll();
+                }
+                selector.wakeup();
+                try {
+                    thread.join();
+                } catch(InterruptedException ex) {
+                }
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Constructs a new {@link SelectorServer};
+     * @param portOff The port offset to initialize the server on.
+     * @param workers The amount of {@link EventLoop}s to serve the clients with.
+     */
+    public SelectorServer(int portOff, int workers) {
+        try {
+            eventLoops = new EventLoop[workers];
+            for(int i = 0; i < workers; i++)
+                eventLoops[i] = new EventLoop(i);
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().bind(new InetSocketAddress(43594 + portOff), Main.backlog);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            initialize();
+        } catch(Exception ex) {
+            LOGGER.log(Level.SEVERE, "Exception thrown while initializing : {0}", ex);
+            throw new RuntimeException();
+        }
+    }
+}
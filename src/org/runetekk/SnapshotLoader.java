@@ -0,0 +1,208 @@
+package org.runetekk;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SnapshotLoader.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class SnapshotLoader {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(SnapshotLoader.class.getName());
+
+    /**
+     * The directory of the cache files.
+     */
+    private String cacheDir;
+
+    /**
+     * The name of the main file.
+     */
+    private String mainFileName;
+
+    /**
+     * The ids of the indexes.
+     */
+    private int[] indexIds;
+
+    /**
+     * The names of the index files.
+     */
+    private String[] indexNames;
+
+    /**
+     * The maximum index id.
+     */
+    private int maximumIndex;
+
+    /**
+     * The index files are mapped into memory.
+     */
+    private boolean mapIndexes;
+
+    /**
+     * The path of the LOADFILE.
+     */
+    private String loadFilePath;
+
+    /**
+     * The path of the pack file the archives are transferred from, or null if
+     * the archives are served from memory.
+     */
+    private String packFilePath;
+
+    /**
+     * The indexes whose archives are always resident, or null if every archive
+     * is preloaded.
+     */
+    private boolean[] pinnedIndexes;
+
+    /**
+     * The maximum amount of bytes held by the lazily loaded archives.
+     */
+    private long cacheBudget;
+
+    /**
+     * The preloaded archives are stored pre-framed.
+     */
+    private boolean preframe;
+
+    /**
+     * If the archives of a verified LOADFILE are checked against their checksums
+     * while they are loaded. Otherwise the stored lengths and checksums are trusted.
+     */
+    private boolean verify;
+
+    /**
+     * The amount of threads the archives are loaded with.
+     */
+    private int loadThreads;
+
+    /**
+     * Loads a new {@link ArchiveSnapshot} from the current cache files and LOADFILE.
+     * The files that were opened are closed again if the snapshot fails to load.
+     * @return The loaded snapshot.
+     * @throws IOException An I/O error occurred while loading or an archive does not
+     *                     match the LOADFILE.
+     */
+    public ArchiveSnapshot load() throws IOException {
+        long startTime = System.currentTimeMillis();
+        FileIndex[] fileIndexes = Main.openFileIndexes(cacheDir, mainFileName, indexIds, indexNames, maximumIndex, mapIndexes);
+        boolean loaded = false;
+        try {
+            ArchiveCache archiveCache = pinnedIndexes == null ? null : new ArchiveCache(fileIndexes, pinnedIndexes, cacheBudget);
+            int[][] lengths = new int[maximumIndex + 1][];
+            LoadFile loadFile = LoadFile.read(loadFilePath);
+            int[] records = new int[loadFile.getRecordCount()];
+            int[] checksums = loadFile.isVerified() && verify ? new int[loadFile.getRecordCount()] : null;
+            int recordCount = 0;
+            for(int i = 0; i < loadFile.getRecordCount(); i++) {
+                int indexId = loadFile.getIndexId(i);
+                int archiveId = loadFile.getArchiveId(i);
+                if(indexId > maximumIndex || fileIndexes[indexId] == null)
+                    throw new IOException("The LOADFILE names index " + indexId + " which is not configured");
+                if(archiveId >= fileIndexes[indexId].getSize())
+                    throw new IOException("The LOADFILE names archive " + archiveId + " of index " + indexId + " which is out of range");
+                if(archiveCache != null && !archiveCache.isPinned(indexId)) {
+                    archiveCache.register(indexId, archiveId);
+                    continue;
+                }
+                if(lengths[indexId] == null) {
+                    lengths[indexId] = new int[fileIndexes[indexId].getSize()];
+                    Arrays.fill(lengths[indexId], -1);
+                }
+                if(loadFile.isVerified()) {
+                    lengths[indexId][archiveId] = loadFile.getLength(i);
+                    if(checksums != null)
+                        checksums[recordCount] = loadFile.getChecksum(i);
+                } else
+                    lengths[indexId][archiveId] = fileIndexes[indexId].getLength(archiveId);
+                records[recordCount++] = loadFile.getRecord(i);
+            }
+            LOGGER.log(Level.INFO, "Parsed {0} version {1} LOADFILE records in {2} ms.", new Object[] { loadFile.getRecordCount(), loadFile.getVersion(), System.currentTimeMillis() - startTime });
+            if(packFilePath != null) {
+                RandomAccessFile packFile = new RandomAccessFile(packFilePath, "r");
+                ArchivePack archivePack;
+                try {
+                    archivePack = new ArchivePack(packFile.getChannel(), lengths, records, recordCount);
+                } catch(IOException | RuntimeException ex) {
+                    packFile.close();
+                    throw ex;
+                }
+                LOGGER.log(Level.INFO, "Serving {0} archives from the pack file.", recordCount);
+                loaded = true;
+                return new ArchiveSnapshot(fileIndexes, null, null, archivePack, loadFile.getRecordCount());
+            }
+            ArchiveArena archiveArena = new ArchiveArena(lengths, preframe);
+            try {
+                if(recordCount > 0) {
+                    ForkJoinPool pool = new ForkJoinPool(loadThreads);
+                    try {
+                        pool.invoke(new ArchiveLoader(fileIndexes, archiveArena, records, checksums, recordCount));
+                    } catch(RuntimeException ex) {
+                        throw new IOException(ex.getMessage(), ex);
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+            } catch(IOException | RuntimeException ex) {
+                archiveArena.destroy();
+                throw ex;
+            }
+            LOGGER.log(Level.INFO, "Loaded {0} archives into {1} bytes across {2} slabs in {3} ms using {4} threads.", new Object[] { recordCount, archiveArena.getCapacity(), archiveArena.getSlabCount(), System.currentTimeMillis() - startTime, loadThreads });
+            if(preframe)
+                LOGGER.log(Level.INFO, "Pre-framing added {0} bytes of block headers, {1}% over the archive payloads.", new Object[] { archiveArena.getFramingOverhead(), 100L * archiveArena.getFramingOverhead() / Math.max(1L, archiveArena.getCapacity() - archiveArena.getFramingOverhead()) });
+            loaded = true;
+            return new ArchiveSnapshot(fileIndexes, archiveArena, archiveCache, null, loadFile.getRecordCount());
+        } finally {
+            if(!loaded) {
+                for(int i = 0; i < fileIndexes.length; i++) {
+                    if(fileIndexes[i] != null)
+                        fileIndexes[i].destroy();
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs a new {@link SnapshotLoader};
+     * @param cacheDir The directory of the cache files.
+     * @param mainFileName The name of the main file.
+     * @param indexIds The ids of the indexes.
+     * @param indexNames The names of the index files.
+     * @param maximumIndex The maximum index id.
+     * @param mapIndexes If the index files are mapped into memory.
+     * @param loadFilePath The path of the LOADFILE.
+     * @param packFilePath The path of the pack file, or null to serve the archives from memory.
+     * @param pinnedIndexes The indexes whose archives are always resident, or null to preload every archive.
+     * @param cacheBudget The maximum amount of bytes held by the lazily loaded archives.
+     * @param preframe If the preloaded archives are stored pre-framed.
+     * @param verify If the archives of a verified LOADFILE are checked against their checksums.
+     * @param loadThreads The amount of threads to load the archives with.
+     */
+    public SnapshotLoader(String cacheDir, String mainFileName, int[] indexIds, String[] indexNames, int maximumIndex, boolean mapIndexes,
+                          String loadFilePath, String packFilePath, boolean[] pinnedIndexes, long cacheBudget, boolean preframe, boolean verify, int loadThreads) {
+        this.cacheDir = cacheDir;
+        this.mainFileName = mainFileName;
+        this.indexIds = indexIds;
+        this.indexNames = indexNames;
+        this.maximumIndex = maximumIndex;
+        this.mapIndexes = mapIndexes;
+        this.loadFilePath = loadFilePath;
+        this.packFilePath = packFilePath;
+        this.pinnedIndexes = pinnedIndexes;
+        this.cacheBudget = cacheBudget;
+        this.preframe = preframe;
+        this.verify = verify;
+        this.loadThreads = loadThreads;
+    }
+}
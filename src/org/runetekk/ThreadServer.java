@@ -0,0 +1,234 @@
+package org.runetekk;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ThreadServer.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class ThreadServer implements Runnable {
+
+    /**
+     * The {@link Logger} utility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ThreadServer.class.getName());
+
+    /**
+     * The amount of bytes of stack of the platform threads that the clients are
+     * served on when virtual threads are not available.
+     */
+    private static final long THREAD_STACK_SIZE = 256L * 1024L;
+
+    /**
+     * The amount of milliseconds between each check for stalled clients.
+     */
+    private static final long STALL_CHECK_INTERVAL = 1000L;
+
+    /**
+     * The amount of {@link MetricsRecorder}s the clients record into for each
+     * processor, spreading the clients over them keeps the threads from contending
+     * for the lock of a recorder.
+     */
+    private static final int RECORDERS_PER_PROCESSOR = 4;
+
+    /**
+     * The local thread.
+     */
+    private Thread thread;
+
+    /**
+     * The thread that checks for stalled clients.
+     */
+    private Thread watchdogThread;
+
+    /**
+     * The local thread is currently paused.
+     */
+    private volatile boolean isPaused;
+
+    /**
+     * The {@link ServerSocketChannel} to accept connections from.
+     */
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * The {@link ThreadFactory} that creates the thread of each client.
+     */
+    private ThreadFactory threadFactory;
+
+    /**
+     * The {@link ClientThread}s of the clients that are currently connected.
+     */
+    private Set<ClientThread> clientThreads;
+
+    /**
+     * The {@link MetricsRecorder}s that the clients record into.
+     */
+    private MetricsRecorder[] metricsRecorders;
+
+    /**
+     * The amount of clients accepted, which picks the recorder of the next client.
+     */
+    private long acceptedCount;
+
+    @Override
+    public void run() {
+        while(!isPaused) {
+            SocketChannel channel = null;
+            try {
+                channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                ClientThread clientThread = new ClientThread(this, channel, metricsRecorders[(int) (acceptedCount++ % metricsRecorders.length)]);
+                clientThreads.add(clientThread);
+                threadFactory.newThread(clientThread).start();
+            } catch(IOException ioex) {
+                if(!isPaused)
+                    LOGGER.log(Level.WARNING, "Exception thrown while accepting a client - ", ioex);
+                if(channel != null) {
+                    try {
+                        channel.close();
+                    } catch(IOException ex) {}
+                }
+            }
+        }
+        for(ClientThread clientThread : clientThreads)
+            clientThread.close();
+    }
+
+    /**
+     * Closes the clients whose output has not been written for longer than the
+     * stall timeout, until this server is destroyed.
+     */
+    private void watch() {
+        for(;;) {
+            synchronized(this) {
+                if(isPaused)
+                    break;
+                try {
+                    wait(STALL_CHECK_INTERVAL);
+                } catch(InterruptedException ex) {
+                    break;
+                }
+            }
+            long currentTime = System.currentTimeMillis();
+            for(ClientThread clientThread : clientThreads) {
+                if(clientThread.isStalled(currentTime)) {
+                    LOGGER.log(Level.WARNING, "Client disconnected : Stalled!");
+                    clientThread.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a {@link ClientThread} once its client is destroyed.
+     * @param clientThread The client thread.
+     */
+    void remove(ClientThread clientThread) {
+        clientThreads.remove(clientThread);
+    }
+
+    /**
+     * Creates the {@link ThreadFactory} that the clients are served with. Virtual threads
+     * are used when the runtime provides them, they are looked up reflectively so that the
+     * server still runs on runtimes without them, where the clients are served on daemon
+     * platform threads with a small stack instead.
+     * @return The thread factory.
+     */
+    private static ThreadFactory createThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "Client-", 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            LOGGER.log(Level.INFO, "Serving each client on a virtual thread.");
+            return threadFactory;
+        } catch(ReflectiveOperationException ex) {
+            LOGGER.log(Level.INFO, "Virtual threads are not available, serving each client on a platform thread.");
+        }
+        return new ThreadFactory() {
+
+            /**
+             * The amount of threads created.
+             */
+            private long count;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(null, runnable, "Client-" + count++, THREAD_STACK_SIZE);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Initializes the local thread.
+     */
+    private void initialize() {
+        thread = new Thread(this, "Acceptor");
+        thread.start();
+        watchdogThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "Watchdog");
+        watchdogThread.setDaemon(true);
+        watchdogThread.start();
+    }
+
+    /**
+     * Destroys this local application.
+     */
+    public void destroy() {
+        if(!isPaused)  {
+            if(thread != null) {
+                synchronized(this) {
+                    isPaused = true;
+                    notifyAll();
+                }
+                try {
+                    serverChannel.close();
+                } catch(IOException ioex) {}
+                try {
+                    thread.join();
+                    watchdogThread.join();
+                } catch(InterruptedException ex) {
+                }
+            }
+            thread = null;
+            watchdogThread = null;
+        }
+    }
+
+    /**
+     * Constructs a new {@link ThreadServer};
+     * @param portOff The port offset to initialize the server on.
+     */
+    public ThreadServer(int portOff) {
+        try {
+            threadFactory = createThreadFactory();
+            clientThreads = ConcurrentHashMap.newKeySet();
+            metricsRecorders = new MetricsRecorder[Runtime.getRuntime().availableProcessors() * RECORDERS_PER_PROCESSOR];
+            for(int i = 0; i < metricsRecorders.length; i++)
+                metricsRecorders[i] = Main.metrics.createRecorder(true);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().bind(new InetSocketAddress(43594 + portOff), Main.backlog);
+            initialize();
+        } catch(Exception ex) {
+            LOGGER.log(Level.SEVERE, "Exception thrown while initializing : {0}", ex);
+            throw new RuntimeException();
+        }
+    }
+}
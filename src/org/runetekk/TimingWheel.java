@@ -0,0 +1,127 @@
+package org.runetekk;
+
+/**
+ * TimingWheel.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class TimingWheel {
+
+    /**
+     * The amount of milliseconds in a tick of the wheels of the serving threads.
+     */
+    static final long TICK_DURATION = 100L;
+
+    /**
+     * The amount of slots in the wheels of the serving threads.
+     */
+    static final int WHEEL_SIZE = 64;
+
+    /**
+     * The slots of this wheel, each the head of a doubly linked list of the clients
+     * whose timeout falls on a tick hashed to the slot. A slot holds the clients of
+     * every round of the wheel, the ones of later rounds are kept until their round.
+     */
+    private Client[] slots;
+
+    /**
+     * The amount of milliseconds in a tick.
+     */
+    private long tickDuration;
+
+    /**
+     * The last tick whose slot was expired.
+     */
+    private long currentTick;
+
+    /**
+     * The head of the list of the clients that timed out and were not polled yet.
+     */
+    private Client expiredClients;
+
+    /**
+     * Schedules the timeout of a client, replacing its previous timeout. A timeout
+     * is expired at most a tick late.
+     * @param client The client.
+     * @param deadline The time in milliseconds at which the client times out.
+     */
+    void schedule(Client client, long deadline) {
+        cancel(client);
+        long tick = (deadline + tickDuration - 1L) / tickDuration;
+        if(tick <= currentTick)
+            tick = currentTick + 1L;
+        int slot = (int) (tick & (slots.length - 1));
+        client.timerSlot = slot;
+        client.timerPrevious = null;
+        client.timerNext = slots[slot];
+        if(slots[slot] != null)
+            slots[slot].timerPrevious = client;
+        slots[slot] = client;
+    }
+
+    /**
+     * Cancels the timeout of a client, if it has one.
+     * @param client The client.
+     */
+    void cancel(Client client) {
+        if(client.timerSlot < 0)
+            return;
+        if(client.timerPrevious != null)
+            client.timerPrevious.timerNext = client.timerNext;
+        else
+            slots[client.timerSlot] = client.timerNext;
+        if(client.timerNext != null)
+            client.timerNext.timerPrevious = client.timerPrevious;
+        client.timerSlot = -1;
+        client.timerPrevious = null;
+        client.timerNext = null;
+    }
+
+    /**
+     * Gets the next client that timed out. The wheel is advanced to the current
+     * time one slot at a time and only the clients of the slots that are passed
+     * are looked at, so the clients that are not about to time out cost nothing.
+     * The timeout of a polled client is cancelled.
+     * @param currentTime The current time in milliseconds.
+     * @return The client or null if no more clients timed out.
+     */
+    Client poll(long currentTime) {
+        for(;;) {
+            Client client = expiredClients;
+            if(client != null) {
+                expiredClients = client.timerNext;
+                client.timerNext = null;
+                return client;
+            }
+            long tick = currentTime / tickDuration;
+            if(tick <= currentTick)
+                return null;
+            if(tick - currentTick > slots.length)
+                currentTick = tick - slots.length;
+            currentTick++;
+            int slot = (int) (currentTick & (slots.length - 1));
+            client = slots[slot];
+            while(client != null) {
+                Client next = client.timerNext;
+                if(client.clientTimeout <= currentTime) {
+                    cancel(client);
+                    client.timerNext = expiredClients;
+                    expiredClients = client;
+                }
+                client = next;
+            }
+        }
+    }
+
+    /**
+     * Constructs a new {@link TimingWheel};
+     * @param tickDuration The amount of milliseconds in a tick.
+     * @param wheelSize The amount of slots, a power of two.
+     * @param currentTime The current time in milliseconds.
+     */
+    public TimingWheel(long tickDuration, int wheelSize, long currentTime) {
+        this.tickDuration = tickDuration;
+        slots = new Client[wheelSize];
+        currentTick = currentTime / tickDuration;
+    }
+}
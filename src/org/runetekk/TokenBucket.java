@@ -0,0 +1,128 @@
+package org.runetekk;
+
+/**
+ * TokenBucket.java
+ * @version 1.0.0
+ * @author RuneTekk Development (SiniSoul)
+ */
+public final class TokenBucket {
+
+    /**
+     * The amount of nanoseconds in a second.
+     */
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * The amount of bytes that are added to this bucket every second.
+     */
+    private long rate;
+
+    /**
+     * The maximum amount of bytes this bucket holds, the largest burst it allows.
+     */
+    private long capacity;
+
+    /**
+     * The amount of nanoseconds it takes to fill this bucket from empty.
+     */
+    private long fillTime;
+
+    /**
+     * The amount of bytes currently in this bucket.
+     */
+    private long tokens;
+
+    /**
+     * The time in nanoseconds up to which bytes were added to this bucket.
+     */
+    private long lastRefill;
+
+    /**
+     * Adds the bytes that accumulated since the last refill.
+     * @param now The current time in nanoseconds.
+     */
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if(elapsed <= 0L)
+            return;
+        if(elapsed >= fillTime) {
+            tokens = capacity;
+            lastRefill = now;
+            return;
+        }
+        long added = elapsed * rate / NANOS_PER_SECOND;
+        if(added == 0L)
+            return;
+        tokens = Math.min(capacity, tokens + added);
+        lastRefill += added * NANOS_PER_SECOND / rate;
+    }
+
+    /**
+     * Gets the amount of bytes that may currently be sent.
+     * @param now The current time in nanoseconds.
+     * @return The amount of bytes.
+     */
+    synchronized long getAvailable(long now) {
+        refill(now);
+        return tokens;
+    }
+
+    /**
+     * Gets the amount of time until an amount of bytes may be sent.
+     * @param now The current time in nanoseconds.
+     * @param bytes The amount of bytes.
+     * @return The amount of nanoseconds, zero if the bytes may be sent now.
+     */
+    synchronized long getDelay(long now, int bytes) {
+        refill(now);
+        return tokens >= bytes ? 0L : (bytes - tokens) * NANOS_PER_SECOND / rate + 1L;
+    }
+
+    /**
+     * Takes bytes that were sent out of this bucket.
+     * @param bytes The amount of bytes.
+     */
+    synchronized void consume(int bytes) {
+        tokens -= bytes;
+    }
+
+    /**
+     * Takes as many bytes out of this bucket as it holds, up to a maximum, in a single
+     * step. A bucket that is shared by multiple threads cannot be overdrawn between
+     * checking and taking the bytes this way.
+     * @param now The current time in nanoseconds.
+     * @param max The maximum amount of bytes.
+     * @param unit The amount of bytes that are granted in multiples of.
+     * @return The amount of bytes granted, zero if the bucket holds less than a unit.
+     */
+    synchronized long tryConsume(long now, long max, int unit) {
+        refill(now);
+        long granted = Math.min(max, tokens) / unit * unit;
+        if(granted <= 0L)
+            return 0L;
+        tokens -= granted;
+        return granted;
+    }
+
+    /**
+     * Puts bytes that were granted but not sent back into this bucket.
+     * @param bytes The amount of bytes.
+     */
+    synchronized void refund(long bytes) {
+        tokens = Math.min(capacity, tokens + bytes);
+    }
+
+    /**
+     * Constructs a new {@link TokenBucket}; The bucket starts full.
+     * @param rate The amount of bytes that are added to the bucket every second.
+     * @param capacity The maximum amount of bytes the bucket holds.
+     * @param now The current time in nanoseconds.
+     */
+    public TokenBucket(long rate, long capacity, long now) {
+        this.rate = rate;
+        this.capacity = capacity;
+        fillTime = capacity * NANOS_PER_SECOND / rate;
+        tokens = capacity;
+        lastRefill = now;
+    }
+}